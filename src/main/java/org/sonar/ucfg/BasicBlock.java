@@ -19,6 +19,7 @@
  */
 package org.sonar.ucfg;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
@@ -28,28 +29,26 @@ import javax.annotation.Nullable;
 import org.sonar.ucfg.UCFGElement.Instruction;
 import org.sonar.ucfg.UCFGElement.UCFGElementType;
 
+/**
+ * Immutable basic block: pruning a UCFG creates new blocks with updated successors instead of modifying them, so that blocks
+ * and UCFGs can be shared between threads.
+ */
 public class BasicBlock {
   private final Label label;
   private final List<Instruction> instructions;
   private final LocationInFile loc;
-  private UCFGElement.Terminator terminator;
+  private final UCFGElement.Terminator terminator;
 
   private static final Label DEAD_END_LABEL = new Label("DEAD_END");
-  public static final BasicBlock DEAD_END = new BasicBlock(DEAD_END_LABEL, Collections.emptyList(), new UCFGElement.Jump(Collections.singletonList(DEAD_END_LABEL)), null) {
-    @Override
-    public boolean isRedundant() {
-      return false;
-    }
-
-    @Override
-    public void updateSuccs(Set<BasicBlock> successors) {
-      // Do not change the successors of DEAD_EAD, should always loop on itself only
-    }
-  };
+  /**
+   * Block looping on itself, which replaces cycles of redundant blocks. Each UCFG requiring it has its own instance, equal to
+   * this one.
+   */
+  public static final BasicBlock DEAD_END = new DeadEnd();
 
   BasicBlock(Label label, List<Instruction> instructions, Instruction.Terminator terminator, @Nullable LocationInFile loc) {
     this.label = label;
-    this.instructions = instructions;
+    this.instructions = Collections.unmodifiableList(new ArrayList<>(instructions));
     this.terminator = terminator;
     this.loc = loc;
   }
@@ -77,10 +76,25 @@ public class BasicBlock {
     return Collections.emptyList();
   }
 
-  public void updateSuccs(Set<BasicBlock> successors) {
+  /**
+   * @return a copy of this block jumping to the given blocks, or this block if it does not end with a jump
+   */
+  public BasicBlock withSuccessors(Set<BasicBlock> successors) {
     if (terminator.type() == UCFGElementType.JUMP) {
-      this.terminator = new UCFGElement.Jump(successors.stream().map(BasicBlock::label).collect(Collectors.toList()));
+      return new BasicBlock(label, instructions, new UCFGElement.Jump(successors.stream().map(BasicBlock::label).collect(Collectors.toList())), loc);
     }
+    return this;
+  }
+
+  boolean isDeadEnd() {
+    return false;
+  }
+
+  /**
+   * @return a new dead end, equal to {@link #DEAD_END}
+   */
+  static BasicBlock newDeadEnd() {
+    return new DeadEnd();
   }
 
   @Override
@@ -109,4 +123,27 @@ public class BasicBlock {
   public LocationInFile locationInFile() {
     return loc;
   }
+
+  private static final class DeadEnd extends BasicBlock {
+
+    private DeadEnd() {
+      super(DEAD_END_LABEL, Collections.emptyList(), new UCFGElement.Jump(Collections.singletonList(DEAD_END_LABEL)), null);
+    }
+
+    @Override
+    public boolean isRedundant() {
+      return false;
+    }
+
+    @Override
+    public BasicBlock withSuccessors(Set<BasicBlock> successors) {
+      // DEAD_END should always loop on itself only
+      return this;
+    }
+
+    @Override
+    boolean isDeadEnd() {
+      return true;
+    }
+  }
 }
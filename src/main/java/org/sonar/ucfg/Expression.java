@@ -30,6 +30,13 @@ public interface Expression {
     }
   };
 
+  /**
+   * Appends the text of {@link #toString()} to the given buffer, without creating intermediate strings.
+   */
+  default void appendTo(StringBuilder out) {
+    out.append(toString());
+  }
+
   default boolean isConstant(){
     return false;
   }
@@ -60,6 +67,11 @@ public interface Expression {
       return id;
     }
 
+    @Override
+    public void appendTo(StringBuilder out) {
+      out.append(id);
+    }
+
     @Override
     public boolean equals(Object o) {
       if (this == o) {
@@ -91,7 +103,14 @@ public interface Expression {
 
     @Override
     public String toString() {
-      return "\"" + value + "\"";
+      StringBuilder sb = new StringBuilder(value.length() + 2);
+      appendTo(sb);
+      return sb.toString();
+    }
+
+    @Override
+    public void appendTo(StringBuilder out) {
+      out.append('"').append(value).append('"');
     }
 
     @Override
@@ -149,7 +168,14 @@ public interface Expression {
 
     @Override
     public String toString() {
-      return "ClassName:"+ typeName;
+      StringBuilder sb = new StringBuilder();
+      appendTo(sb);
+      return sb.toString();
+    }
+
+    @Override
+    public void appendTo(StringBuilder out) {
+      out.append("ClassName:").append(typeName);
     }
   }
 
@@ -187,7 +213,17 @@ public interface Expression {
 
     @Override
     public String toString() {
-      return String.format("FieldAccess %s %s", object, field);
+      StringBuilder sb = new StringBuilder();
+      appendTo(sb);
+      return sb.toString();
+    }
+
+    @Override
+    public void appendTo(StringBuilder out) {
+      out.append("FieldAccess ");
+      object.appendTo(out);
+      out.append(' ');
+      field.appendTo(out);
     }
 
     @Override
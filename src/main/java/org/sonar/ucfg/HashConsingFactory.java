@@ -0,0 +1,161 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+
+/**
+ * Opt-in factory returning the same instance for structurally equal expressions and locations, so that equality checks
+ * on instructions mostly succeed on identity. Instances are created through {@link UCFGBuilder} factory methods on first request.
+ * <p>
+ * The factory is thread-safe and keeps every instance it created: it should be scoped to a batch of UCFGs
+ * (see {@link UCFGtoProtobuf#fromProtobufFile(java.io.File, HashConsingFactory)}).
+ */
+public class HashConsingFactory {
+
+  private final Map<String, Expression.Variable> variables = new ConcurrentHashMap<>();
+  private final Map<String, Expression.Constant> constants = new ConcurrentHashMap<>();
+  private final Map<String, Expression.ClassName> classNames = new ConcurrentHashMap<>();
+  private final Map<Expression, Map<Expression.Variable, Expression.FieldAccess>> fieldAccesses = new ConcurrentHashMap<>();
+  private final LocationTable locations = new LocationTable();
+
+  public Expression.Variable variableWithId(String id) {
+    return variables.computeIfAbsent(id, UCFGBuilder::variableWithId);
+  }
+
+  public Expression.Constant constant(String value) {
+    return constants.computeIfAbsent(value, UCFGBuilder::constant);
+  }
+
+  public Expression.ClassName clazz(String classname) {
+    return classNames.computeIfAbsent(classname, UCFGBuilder::clazz);
+  }
+
+  public Expression.FieldAccess fieldAccess(Expression.Variable field) {
+    return fieldAccessesOf(Expression.THIS).computeIfAbsent(variableWithId(field.id()), UCFGBuilder::fieldAccess);
+  }
+
+  public Expression.FieldAccess fieldAccess(Expression.Variable object, Expression.Variable field) {
+    Expression.Variable canonicalObject = variableWithId(object.id());
+    return fieldAccessesOf(canonicalObject).computeIfAbsent(variableWithId(field.id()), f -> UCFGBuilder.fieldAccess(canonicalObject, f));
+  }
+
+  public Expression.FieldAccess fieldAccess(Expression.ClassName object, Expression.Variable field) {
+    Expression.ClassName canonicalObject = clazz(object.typeName());
+    return fieldAccessesOf(canonicalObject).computeIfAbsent(variableWithId(field.id()), f -> UCFGBuilder.fieldAccess(canonicalObject, f));
+  }
+
+  private Map<Expression.Variable, Expression.FieldAccess> fieldAccessesOf(Expression object) {
+    return fieldAccesses.computeIfAbsent(object, o -> new ConcurrentHashMap<>());
+  }
+
+  /**
+   * Looks the location up by its components: a location is only created the first time it is requested.
+   */
+  public LocationInFile location(String fileId, int startLine, int startLineOffset, int endLine, int endLineOffset) {
+    return locations.get(fileId, startLine, startLineOffset, endLine, endLineOffset, null);
+  }
+
+  public LocationInFile canonical(LocationInFile location) {
+    return locations.get(location.getFileId(), location.getStartLine(), location.getStartLineOffset(), location.getEndLine(), location.getEndLineOffset(),
+      location);
+  }
+
+  /**
+   * Hash table of locations probed with the components of a location, so that finding an existing location does not allocate.
+   * The table is split in independently locked stripes, selected by the high bits of the hash, so that threads decoding UCFGs
+   * concurrently rarely wait for each other.
+   */
+  private static final class LocationTable {
+    private static final int STRIPE_BITS = 6;
+    private final Stripe[] stripes = new Stripe[1 << STRIPE_BITS];
+
+    LocationTable() {
+      for (int i = 0; i < stripes.length; i++) {
+        stripes[i] = new Stripe();
+      }
+    }
+
+    /**
+     * @param candidate location to add when there is no equal location yet, a new location being created if null
+     */
+    LocationInFile get(String fileId, int startLine, int startLineOffset, int endLine, int endLineOffset, @Nullable LocationInFile candidate) {
+      int hash = hash(fileId, startLine, startLineOffset, endLine, endLineOffset);
+      return stripes[hash >>> (Integer.SIZE - STRIPE_BITS)].get(hash, fileId, startLine, startLineOffset, endLine, endLineOffset, candidate);
+    }
+
+    private static int hash(String fileId, int startLine, int startLineOffset, int endLine, int endLineOffset) {
+      int h = fileId.hashCode();
+      h = 31 * h + startLine;
+      h = 31 * h + startLineOffset;
+      h = 31 * h + endLine;
+      h = 31 * h + endLineOffset;
+      h *= 0x9E3779B9;
+      return h ^ (h >>> 16);
+    }
+  }
+
+  /**
+   * Open addressing hash table of the locations of one stripe, indexed by the low bits of the hash.
+   */
+  private static final class Stripe {
+    private LocationInFile[] table = new LocationInFile[16];
+    private int size = 0;
+
+    synchronized LocationInFile get(int hash, String fileId, int startLine, int startLineOffset, int endLine, int endLineOffset,
+      @Nullable LocationInFile candidate) {
+      int mask = table.length - 1;
+      int i = hash & mask;
+      LocationInFile location;
+      while ((location = table[i]) != null) {
+        if (location.getStartLine() == startLine && location.getStartLineOffset() == startLineOffset && location.getEndLine() == endLine
+          && location.getEndLineOffset() == endLineOffset && location.getFileId().equals(fileId)) {
+          return location;
+        }
+        i = (i + 1) & mask;
+      }
+      location = candidate != null ? candidate : new LocationInFile(fileId, startLine, startLineOffset, endLine, endLineOffset);
+      table[i] = location;
+      size++;
+      if (size * 2 > table.length) {
+        resize();
+      }
+      return location;
+    }
+
+    private void resize() {
+      LocationInFile[] old = table;
+      table = new LocationInFile[old.length * 2];
+      int mask = table.length - 1;
+      for (LocationInFile location : old) {
+        if (location != null) {
+          int i = LocationTable.hash(location.getFileId(), location.getStartLine(), location.getStartLineOffset(), location.getEndLine(),
+            location.getEndLineOffset()) & mask;
+          while (table[i] != null) {
+            i = (i + 1) & mask;
+          }
+          table[i] = location;
+        }
+      }
+    }
+  }
+}
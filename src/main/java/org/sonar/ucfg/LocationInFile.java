@@ -82,7 +82,17 @@ public class LocationInFile {
 
   @Override
   public String toString() {
-    return "\n         in " + fileId + '\n' +
-      "         at " + startLine + ':' + startLineOffset + " - " + endLine + ':' + endLineOffset;
+    StringBuilder sb = new StringBuilder();
+    appendTo(sb);
+    return sb.toString();
+  }
+
+  /**
+   * Appends the text of {@link #toString()} to the given buffer.
+   */
+  void appendTo(StringBuilder out) {
+    out.append("\n         in ").append(fileId)
+      .append("\n         at ").append(startLine).append(':').append(startLineOffset)
+      .append(" - ").append(endLine).append(':').append(endLineOffset);
   }
 }
@@ -19,32 +19,96 @@
  */
 package org.sonar.ucfg;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import org.sonar.ucfg.util.WorkSet;
+import javax.annotation.Nullable;
 
+/**
+ * Immutable UCFG: once constructed, or decoded for a lazy UCFG, a UCFG and its blocks never change and can be analyzed
+ * concurrently by several threads.
+ */
 public class UCFG {
 
   private final String methodId;
   private final List<Expression.Variable> parameters;
-  private Map<Label, BasicBlock> basicBlocks;
-  private Map<Label, BasicBlock> nonRedundantGraph;
-  private Set<BasicBlock> nonRedundantEntryBlocks;
-  private LocationInFile location;
-  private boolean requiresDeadEnd = false;
+  private final LocationInFile location;
+  /**
+   * Pruned graph, null until decoded for a lazy UCFG.
+   */
+  private volatile Body body;
+  /**
+   * Decodes the full UCFG of a lazy UCFG, null once the blocks are available. Guarded by this.
+   */
+  private Supplier<UCFG> bodyDecoder;
+  private volatile UCFGGraph graph;
+  private volatile ReverseGraph reverseGraph;
+  private volatile Orderings orderings;
 
   public UCFG(String methodId, List<Expression.Variable> parameters, Set<BasicBlock> basicBlocks, Set<BasicBlock> entryBlocks, LocationInFile location) {
+    this(methodId, parameters, basicBlocks.stream().collect(Collectors.toMap(BasicBlock::label, Function.identity())), entryBlocks, location, false);
+  }
+
+  /**
+   * @param onlyReachable if true, non-redundant blocks which are not reachable from the entry blocks are dropped instead of
+   * being kept in the pruned graph
+   */
+  UCFG(String methodId, List<Expression.Variable> parameters, Map<Label, BasicBlock> blockByLabel, Set<BasicBlock> entryBlocks,
+    LocationInFile location, boolean onlyReachable) {
     this.methodId = methodId;
-    this.parameters = parameters;
-    this.basicBlocks = basicBlocks.stream().collect(Collectors.toMap(BasicBlock::label, Function.identity()));
+    this.parameters = Collections.unmodifiableList(new ArrayList<>(parameters));
     this.location = location;
-    computeFilteredGraph(entryBlocks);
+    this.body = computeFilteredGraph(blockByLabel, entryBlocks, onlyReachable);
+  }
+
+  /**
+   * Lazy UCFG: blocks are only decoded, by the given decoder, when first accessed.
+   */
+  UCFG(String methodId, List<Expression.Variable> parameters, @Nullable LocationInFile location, Supplier<UCFG> bodyDecoder) {
+    this.methodId = methodId;
+    this.parameters = Collections.unmodifiableList(new ArrayList<>(parameters));
+    this.location = location;
+    this.bodyDecoder = bodyDecoder;
+  }
+
+  private Body body() {
+    Body result = body;
+    if (result == null) {
+      synchronized (this) {
+        result = body;
+        if (result == null) {
+          result = bodyDecoder.get().body();
+          body = result;
+          bodyDecoder = null;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Blocks and entry blocks of the pruned graph, only reachable through final fields to be safely published.
+   */
+  private static final class Body {
+    private final Map<Label, BasicBlock> blocks;
+    private final Set<BasicBlock> entryBlocks;
+
+    private Body(Map<Label, BasicBlock> blocks, Set<BasicBlock> entryBlocks) {
+      this.blocks = Collections.unmodifiableMap(blocks);
+      this.entryBlocks = Collections.unmodifiableSet(entryBlocks);
+    }
   }
 
   public String methodId() {
@@ -55,61 +119,291 @@ public class UCFG {
     return parameters;
   }
 
-  private void computeFilteredGraph(Set<BasicBlock> entryBlocks) {
-    nonRedundantEntryBlocks = entryBlocks.stream().flatMap(bb -> {
+  /**
+   * Prunes redundant blocks in a single traversal from the entry blocks: each visited block is replaced by a copy jumping to the
+   * non-redundant blocks it eventually leads to, and those are visited in turn.
+   */
+  private static Body computeFilteredGraph(Map<Label, BasicBlock> blockByLabel, Set<BasicBlock> entryBlocks, boolean onlyReachable) {
+    RedundantBlocks redundantBlocks = new RedundantBlocks(blockByLabel);
+    Set<BasicBlock> nonRedundantEntryBlocks = entryBlocks.stream().flatMap(bb -> {
       if(bb.isRedundant()) {
-        return nonRedundantSuccessors(bb).stream();
+        return redundantBlocks.nonRedundantSuccessors(bb).stream();
       } else {
         return Stream.of(bb);
       }
     }).collect(Collectors.toSet());
-    Map<BasicBlock, Set<BasicBlock>> newSuccessors = basicBlocks.values().stream()
-      .filter(b -> !b.isRedundant())
-      .collect(Collectors.toMap(Function.identity(), this::nonRedundantSuccessors));
-    newSuccessors.forEach(BasicBlock::updateSuccs);
-    nonRedundantGraph = newSuccessors.keySet().stream().collect(Collectors.toMap(BasicBlock::label, Function.identity()));
-    if (requiresDeadEnd) {
-      nonRedundantGraph.put(BasicBlock.DEAD_END.label(), BasicBlock.DEAD_END);
-      basicBlocks.put(BasicBlock.DEAD_END.label(), BasicBlock.DEAD_END);
+    Map<Label, BasicBlock> nonRedundantGraph = new HashMap<>();
+    Deque<BasicBlock> toVisit = new ArrayDeque<>(nonRedundantEntryBlocks);
+    if (!onlyReachable) {
+      blockByLabel.values().stream().filter(b -> !b.isRedundant()).forEach(toVisit::add);
+    }
+    while (!toVisit.isEmpty()) {
+      BasicBlock block = toVisit.pop();
+      if (nonRedundantGraph.containsKey(block.label())) {
+        continue;
+      }
+      if (block.isDeadEnd()) {
+        nonRedundantGraph.put(block.label(), block);
+      } else {
+        Set<BasicBlock> successors = redundantBlocks.nonRedundantSuccessors(block);
+        nonRedundantGraph.put(block.label(), block.withSuccessors(successors));
+        toVisit.addAll(successors);
+      }
     }
     if(nonRedundantGraph.values().stream().anyMatch(BasicBlock::isRedundant)) {
       throw new IllegalStateException("Pruned graph should not contain any redundant blocks.");
     }
+    Set<BasicBlock> prunedEntryBlocks = nonRedundantEntryBlocks.stream().map(b -> nonRedundantGraph.get(b.label())).collect(Collectors.toSet());
+    return new Body(nonRedundantGraph, prunedEntryBlocks);
   }
 
-  private Set<BasicBlock> nonRedundantSuccessors(BasicBlock basicBlock) {
-    Set<BasicBlock> res = new HashSet<>();
-    Set<BasicBlock> seen = new HashSet<>();
-    WorkSet<BasicBlock> workSet = new WorkSet<>(successors(basicBlock));
-    while (!workSet.isEmpty()) {
-      BasicBlock succ = workSet.pop();
-      if(!seen.add(succ)) {
-        continue;
+  /**
+   * Resolves redundant blocks to the non-redundant blocks they eventually jump to, in a single traversal of the redundant blocks:
+   * blocks of a strongly connected component of redundant blocks all resolve to the same set, computed once (Tarjan's algorithm).
+   * A component whose successors are all redundant resolves to an empty set.
+   */
+  private static class RedundantBlocks {
+    private final Map<Label, BasicBlock> blocks;
+    private final Map<BasicBlock, Set<BasicBlock>> resolved = new HashMap<>();
+    private final Map<BasicBlock, Integer> visited = new HashMap<>();
+    private final Deque<Frame> stack = new ArrayDeque<>();
+
+    private BasicBlock deadEnd;
+
+    private RedundantBlocks(Map<Label, BasicBlock> blocks) {
+      this.blocks = blocks;
+    }
+
+    private Set<BasicBlock> nonRedundantSuccessors(BasicBlock basicBlock) {
+      Set<BasicBlock> res = new HashSet<>();
+      List<Label> successors = basicBlock.successors();
+      for (Label label : successors) {
+        BasicBlock succ = block(label);
+        if (succ.isRedundant()) {
+          res.addAll(resolve(succ));
+        } else {
+          res.add(succ);
+        }
       }
-      if (succ.isRedundant()) {
-        workSet.addAll(successors(succ));
-      } else {
-        res.add(succ);
+      if (!successors.isEmpty() && res.isEmpty()) {
+        // found a cycle where everything is redundant
+        if (deadEnd == null) {
+          deadEnd = BasicBlock.newDeadEnd();
+        }
+        return Collections.singleton(deadEnd);
+      }
+      return res;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a block jumps to an unknown label
+     */
+    private BasicBlock block(Label label) {
+      BasicBlock block = blocks.get(label);
+      if (block == null) {
+        throw new IllegalArgumentException("No basic block with label " + label.id());
       }
+      return block;
     }
-    if (!seen.isEmpty() && res.isEmpty()) {
-      // found a cycle where everything is redundant
-      this.requiresDeadEnd = true;
-      return Collections.singleton(BasicBlock.DEAD_END);
+
+    private static class Frame {
+      private final BasicBlock block;
+      private final int index;
+      private final List<Label> successors;
+      private final Set<BasicBlock> reached = new HashSet<>();
+      private int lowLink;
+      private int next = 0;
+
+      private Frame(BasicBlock block, int index) {
+        this.block = block;
+        this.index = index;
+        this.lowLink = index;
+        this.successors = block.successors();
+      }
     }
-    return res;
-  }
 
-  private Set<BasicBlock> successors(BasicBlock b) {
-    return b.successors().stream().map(basicBlocks::get).collect(Collectors.toSet());
+    private Set<BasicBlock> resolve(BasicBlock redundant) {
+      Set<BasicBlock> result = resolved.get(redundant);
+      if (result != null) {
+        return result;
+      }
+      // blocks of the components being visited, and the depth-first path to the current block
+      Deque<Frame> path = new ArrayDeque<>();
+      path.push(visit(redundant));
+      while (!path.isEmpty()) {
+        Frame frame = path.peek();
+        if (frame.next < frame.successors.size()) {
+          BasicBlock succ = block(frame.successors.get(frame.next++));
+          if (!succ.isRedundant()) {
+            frame.reached.add(succ);
+          } else if (resolved.containsKey(succ)) {
+            frame.reached.addAll(resolved.get(succ));
+          } else if (visited.containsKey(succ)) {
+            // on the stack: same component
+            frame.lowLink = Math.min(frame.lowLink, visited.get(succ));
+          } else {
+            path.push(visit(succ));
+          }
+          continue;
+        }
+        path.pop();
+        if (frame.lowLink == frame.index) {
+          completeComponent(frame);
+        }
+        Frame parent = path.peek();
+        if (parent != null) {
+          parent.lowLink = Math.min(parent.lowLink, frame.lowLink);
+          Set<BasicBlock> reached = resolved.get(frame.block);
+          if (reached != null) {
+            parent.reached.addAll(reached);
+          }
+        }
+      }
+      return resolved.get(redundant);
+    }
+
+    private Frame visit(BasicBlock block) {
+      Frame frame = new Frame(block, visited.size());
+      visited.put(block, frame.index);
+      stack.push(frame);
+      return frame;
+    }
+
+    private void completeComponent(Frame root) {
+      Set<BasicBlock> reached = new HashSet<>();
+      List<BasicBlock> component = new ArrayList<>();
+      Frame member;
+      do {
+        member = stack.pop();
+        reached.addAll(member.reached);
+        component.add(member.block);
+      } while (member != root);
+      Set<BasicBlock> result = Collections.unmodifiableSet(reached);
+      component.forEach(b -> resolved.put(b, result));
+    }
   }
 
   public Map<Label, BasicBlock> basicBlocks() {
-    return nonRedundantGraph;
+    return body().blocks;
   }
 
   public Set<BasicBlock> entryBlocks() {
-    return nonRedundantEntryBlocks;
+    return body().entryBlocks;
+  }
+
+  /**
+   * Int-indexed view of {@link #basicBlocks()}, computed on first call.
+   */
+  public UCFGGraph graph() {
+    UCFGGraph result = graph;
+    if (result == null) {
+      result = new UCFGGraph(basicBlocks(), entryBlocks());
+      graph = result;
+    }
+    return result;
+  }
+
+  /**
+   * @return blocks jumping to the given block, in the order of {@link #graph()} indexes, computed once for all blocks on first call
+   * @throws IllegalArgumentException if the block is not part of {@link #basicBlocks()}
+   */
+  public List<BasicBlock> predecessors(BasicBlock block) {
+    return reverseGraph().predecessors.get(graph().index(block.label()));
+  }
+
+  /**
+   * @return blocks ending with a return, and {@link BasicBlock#DEAD_END} when present: the entries of a backward analysis
+   */
+  public Set<BasicBlock> exitBlocks() {
+    return reverseGraph().exitBlocks;
+  }
+
+  /**
+   * @return blocks in reverse postorder of a depth-first traversal from the entry blocks, followed by the blocks which are not
+   * reachable from them, computed once: the order in which forward analyses converge fastest
+   */
+  public List<BasicBlock> reversePostorder() {
+    return orderings().reversePostorder;
+  }
+
+  /**
+   * @return blocks in postorder, computed once: the order in which backward analyses converge fastest
+   */
+  public List<BasicBlock> postorder() {
+    return orderings().postorder;
+  }
+
+  /**
+   * @return strongly connected components (loops, or single blocks outside of loops) in topological order, each one in reverse
+   * postorder, computed once
+   */
+  public List<List<BasicBlock>> stronglyConnectedComponents() {
+    return orderings().components;
+  }
+
+  private Orderings orderings() {
+    Orderings result = orderings;
+    if (result == null) {
+      result = new Orderings(graph());
+      orderings = result;
+    }
+    return result;
+  }
+
+  private static class Orderings {
+    private final List<BasicBlock> reversePostorder;
+    private final List<BasicBlock> postorder;
+    private final List<List<BasicBlock>> components;
+
+    private Orderings(UCFGGraph graph) {
+      BasicBlock[] rpo = new BasicBlock[graph.size()];
+      BasicBlock[] po = new BasicBlock[graph.size()];
+      for (int i = 0; i < rpo.length; i++) {
+        rpo[i] = graph.block(graph.blockInReversePostorder(i));
+        po[i] = graph.block(graph.blockInPostorder(i));
+      }
+      reversePostorder = Collections.unmodifiableList(Arrays.asList(rpo));
+      postorder = Collections.unmodifiableList(Arrays.asList(po));
+      List<List<BasicBlock>> sccs = new ArrayList<>(graph.componentCount());
+      for (int c = 0; c < graph.componentCount(); c++) {
+        BasicBlock[] scc = new BasicBlock[graph.componentSize(c)];
+        for (int i = 0; i < scc.length; i++) {
+          scc[i] = graph.block(graph.componentBlock(c, i));
+        }
+        sccs.add(Collections.unmodifiableList(Arrays.asList(scc)));
+      }
+      components = Collections.unmodifiableList(sccs);
+    }
+  }
+
+  private ReverseGraph reverseGraph() {
+    ReverseGraph result = reverseGraph;
+    if (result == null) {
+      result = new ReverseGraph(graph());
+      reverseGraph = result;
+    }
+    return result;
+  }
+
+  private static class ReverseGraph {
+    private final List<List<BasicBlock>> predecessors;
+    private final Set<BasicBlock> exitBlocks;
+
+    private ReverseGraph(UCFGGraph graph) {
+      predecessors = new ArrayList<>(graph.size());
+      for (int b = 0; b < graph.size(); b++) {
+        BasicBlock[] blocks = new BasicBlock[graph.predecessorCount(b)];
+        for (int i = 0; i < blocks.length; i++) {
+          blocks[i] = graph.block(graph.predecessor(b, i));
+        }
+        predecessors.add(Collections.unmodifiableList(Arrays.asList(blocks)));
+      }
+      Set<BasicBlock> exits = new LinkedHashSet<>();
+      for (int i = 0; i < graph.exitCount(); i++) {
+        exits.add(graph.block(graph.exit(i)));
+      }
+      exitBlocks = Collections.unmodifiableSet(exits);
+    }
   }
 
   public LocationInFile location() {
@@ -0,0 +1,229 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import javax.annotation.Nullable;
+
+/**
+ * Writes UCFGs to a container file without blocking the producer on the disk.
+ * <p>
+ * UCFGs are serialized on the provided executor, then appended to the container by a dedicated I/O thread, in the order
+ * they were written, through a large output buffer. At most {@code maxPendingUCFGs} UCFGs are being serialized or waiting
+ * to be written at any time: {@link #write(UCFG)} blocks when this limit is reached.
+ * <p>
+ * An error while serializing or writing a UCFG is reported by the next call to {@link #write(UCFG)}, {@link #flush()} or
+ * {@link #close()}, and no UCFG is written after it: the index of the container is then not written, so that the partial file
+ * is not mistaken for a complete container. Methods of this class are meant to be called from a single producer thread.
+ */
+public class UCFGAsyncWriter implements Closeable, Flushable {
+
+  private static final int OUTPUT_BUFFER_SIZE = 1 << 20;
+
+  private final UCFGContainerWriter container;
+  private final ExecutorService serializers;
+  private final Semaphore permits;
+  private final BlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+  private final Task end = new Task(null, null);
+  private final Thread ioThread;
+  private volatile IOException failure = null;
+  private boolean closed = false;
+
+  private UCFGAsyncWriter(UCFGContainerWriter container, ExecutorService serializers, int maxPendingUCFGs) {
+    this.container = container;
+    this.serializers = serializers;
+    this.permits = new Semaphore(maxPendingUCFGs);
+    this.ioThread = new Thread(this::writeQueued, "ucfg-writer");
+    ioThread.setDaemon(true);
+    ioThread.start();
+  }
+
+  /**
+   * @param deltaLocations see {@link UCFGtoProtobuf#toProtobufFile(UCFG, String, boolean)}
+   */
+  public static UCFGAsyncWriter create(String filename, boolean deltaLocations, ExecutorService serializers, int maxPendingUCFGs) throws IOException {
+    if (maxPendingUCFGs < 1) {
+      throw new IllegalArgumentException("maxPendingUCFGs should be strictly positive: " + maxPendingUCFGs);
+    }
+    return new UCFGAsyncWriter(UCFGContainerWriter.create(filename, deltaLocations, OUTPUT_BUFFER_SIZE), serializers, maxPendingUCFGs);
+  }
+
+  /**
+   * Queue the UCFG for writing, waiting while {@code maxPendingUCFGs} UCFGs are already pending.
+   */
+  public void write(UCFG ucfg) throws IOException {
+    checkOpen();
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to write UCFG " + ucfg.methodId());
+    }
+    boolean deltaLocations = container.deltaLocations();
+    Future<byte[]> serialized;
+    try {
+      throwIfFailed();
+      serialized = serializers.submit(() -> UCFGProtobufWriter.perThread().toDelimitedByteArray(ucfg, deltaLocations));
+    } catch (IOException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+    queue.add(new Task(ucfg.methodId(), serialized));
+  }
+
+  /**
+   * Wait until all the UCFGs written so far are serialized and written to the file.
+   */
+  @Override
+  public void flush() throws IOException {
+    checkOpen();
+    awaitProcessed(new Task(null, null));
+    throwIfFailed();
+  }
+
+  /**
+   * Write all pending UCFGs and the index of the container, then stop the I/O thread. The executor is not shut down.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    awaitProcessed(end);
+    throwIfFailed();
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("UCFG writer is closed");
+    }
+  }
+
+  private void awaitProcessed(Task task) throws InterruptedIOException {
+    queue.add(task);
+    try {
+      task.processed.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for UCFGs to be written");
+    }
+  }
+
+  private void throwIfFailed() throws IOException {
+    IOException e = failure;
+    if (e != null) {
+      throw new IOException("An error occured while writing UCFGs", e);
+    }
+  }
+
+  /**
+   * Loop of the I/O thread.
+   */
+  private void writeQueued() {
+    while (true) {
+      Task task;
+      try {
+        task = queue.take();
+      } catch (InterruptedException e) {
+        // the I/O thread is private to this writer: it only stops once the container is closed
+        fail(new InterruptedIOException("UCFG writer thread interrupted"));
+        continue;
+      }
+      if (task == end) {
+        try {
+          if (failure == null) {
+            container.close();
+          } else {
+            container.abort();
+          }
+        } catch (IOException e) {
+          fail(e);
+        }
+        task.processed.countDown();
+        return;
+      }
+      if (task.serialized == null) {
+        flushContainer();
+      } else {
+        writeSerialized(task);
+      }
+      task.processed.countDown();
+    }
+  }
+
+  private void flushContainer() {
+    if (failure == null) {
+      try {
+        container.flush();
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+  }
+
+  private void writeSerialized(Task task) {
+    try {
+      byte[] bytes = task.serialized.get();
+      if (failure == null) {
+        container.writeSerialized(task.methodId, bytes);
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      fail(cause instanceof IOException ? (IOException) cause : new IOException("Cannot serialize UCFG " + task.methodId, cause));
+    } catch (InterruptedException e) {
+      fail(new InterruptedIOException("Interrupted while serializing UCFG " + task.methodId));
+    } catch (IOException e) {
+      fail(e);
+    } finally {
+      permits.release();
+    }
+  }
+
+  private void fail(IOException e) {
+    if (failure == null) {
+      failure = e;
+    }
+  }
+
+  private static class Task {
+    @Nullable
+    private final String methodId;
+    // null for a flush request
+    @Nullable
+    private final Future<byte[]> serialized;
+    private final CountDownLatch processed = new CountDownLatch(1);
+
+    private Task(@Nullable String methodId, @Nullable Future<byte[]> serialized) {
+      this.methodId = methodId;
+      this.serialized = serialized;
+    }
+  }
+}
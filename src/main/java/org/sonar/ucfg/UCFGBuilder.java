@@ -21,15 +21,13 @@ package org.sonar.ucfg;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import org.sonar.ucfg.UCFGElement.Instruction;
-import org.sonar.ucfg.util.WorkSet;
 
 public class UCFGBuilder {
 
@@ -78,6 +76,15 @@ public class UCFGBuilder {
       return this;
     }
 
+    Label label() {
+      return label;
+    }
+
+    BlockBuilder instruction(Instruction instruction) {
+      instructions.add(instruction);
+      return this;
+    }
+
     public BlockBuilder assignTo(Expression.Variable lhs, CallBuilder callBuilder) {
       return assignTo(lhs, callBuilder, LOC);
     }
@@ -159,23 +166,13 @@ public class UCFGBuilder {
       startingBlocks.add(blocks.get(0));
     }
 
-    return new UCFG(methodId, parameters, removeUnreachable(blocks, startingBlocks), startingBlocks, location);
-  }
-
-  /**
-   * Remove parts of the graph not reachable from entry point.
-   */
-  private static Set<BasicBlock> removeUnreachable(List<BasicBlock> blocks, Set<BasicBlock> startingBlocks) {
-    Set<BasicBlock> reached = new HashSet<>();
-    WorkSet<BasicBlock> workSet = new WorkSet<>(startingBlocks);
-    Map<Label, BasicBlock> blockByLabel = blocks.stream().collect(Collectors.toMap(BasicBlock::label, Function.identity()));
-    while (!workSet.isEmpty()) {
-      BasicBlock current = workSet.pop();
-      if(reached.add(current)) {
-        current.successors().forEach(l -> workSet.add(blockByLabel.get(l)));
+    Map<Label, BasicBlock> blockByLabel = new HashMap<>();
+    for (BasicBlock block : blocks) {
+      if (blockByLabel.put(block.label(), block) != null) {
+        throw new IllegalStateException("Duplicate block label " + block.label().id());
       }
     }
-    return reached;
+    return new UCFG(methodId, parameters, blockByLabel, startingBlocks, location, true);
   }
 
   public static UCFGBuilder createUCFGForMethod(String methodId) {
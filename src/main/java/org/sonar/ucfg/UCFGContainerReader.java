@@ -0,0 +1,242 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg;
+
+import com.google.protobuf.CodedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.ucfg.protobuf.Ucfg;
+import org.sonar.ucfg.util.Interner;
+import org.sonar.ucfg.util.Interners;
+
+/**
+ * Reads a container file written by {@link UCFGContainerWriter}.
+ * UCFGs can be read all at once or one by one through their method id, using the index of the container.
+ */
+public class UCFGContainerReader implements Closeable {
+
+  private static final int MAX_VARINT_SIZE = 5;
+
+  private final File containerFile;
+  private final RandomAccessFile file;
+  private final Interner interner;
+  private final List<Long> offsets = new ArrayList<>();
+  private final Map<String, Long> offsetByMethodId = new LinkedHashMap<>();
+  @Nullable
+  private MappedByteBuffer mapped = null;
+
+  private UCFGContainerReader(File containerFile, RandomAccessFile file, Interner interner) {
+    this.containerFile = containerFile;
+    this.file = file;
+    this.interner = interner;
+  }
+
+  public static UCFGContainerReader open(File containerFile) throws IOException {
+    return open(containerFile, Interners.none());
+  }
+
+  /**
+   * Open the container, UCFGs being decoded with the given interner, see {@link UCFGtoProtobuf#fromProtobufFile(File, Interner)}.
+   */
+  public static UCFGContainerReader open(File containerFile, Interner interner) throws IOException {
+    return open(containerFile, false, interner);
+  }
+
+  public static UCFGContainerReader openMapped(File containerFile) throws IOException {
+    return openMapped(containerFile, Interners.none());
+  }
+
+  /**
+   * Open the container with the whole file mapped in memory: UCFGs are then parsed from the mapped file,
+   * without reading the whole message in a heap array first. Containers of more than 2GB cannot be mapped.
+   */
+  public static UCFGContainerReader openMapped(File containerFile, Interner interner) throws IOException {
+    return open(containerFile, true, interner);
+  }
+
+  private static UCFGContainerReader open(File containerFile, boolean mapped, Interner interner) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(containerFile, "r");
+    UCFGContainerReader reader = new UCFGContainerReader(containerFile, file, interner);
+    try {
+      reader.readIndex();
+      if (mapped) {
+        if (file.length() > Integer.MAX_VALUE) {
+          throw new IllegalStateException("UCFG container is too large to be mapped in memory: " + containerFile);
+        }
+        reader.mapped = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+      }
+    } catch (IOException | RuntimeException e) {
+      file.close();
+      throw e;
+    }
+    return reader;
+  }
+
+  /**
+   * Check the trailer of the file to tell whether it is a container or a single UCFG file.
+   */
+  public static boolean isContainer(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      return raf.length() >= UCFGContainerWriter.TRAILER_SIZE && readIndexOffset(raf) >= 0;
+    }
+  }
+
+  private static long readIndexOffset(RandomAccessFile raf) throws IOException {
+    raf.seek(raf.length() - UCFGContainerWriter.TRAILER_SIZE);
+    long indexOffset = raf.readLong();
+    if (raf.readInt() != UCFGContainerWriter.MAGIC || indexOffset < 0 || indexOffset > raf.length() - UCFGContainerWriter.TRAILER_SIZE) {
+      return -1;
+    }
+    return indexOffset;
+  }
+
+  private void readIndex() throws IOException {
+    long indexOffset = file.length() < UCFGContainerWriter.TRAILER_SIZE ? -1 : readIndexOffset(file);
+    if (indexOffset < 0) {
+      throw new IllegalStateException("Not a UCFG container: " + containerFile);
+    }
+    byte[] indexBytes = new byte[(int) (file.length() - UCFGContainerWriter.TRAILER_SIZE - indexOffset)];
+    file.seek(indexOffset);
+    file.readFully(indexBytes);
+    for (Ucfg.UCFGIndexEntry entry : Ucfg.UCFGIndex.parseFrom(indexBytes).getEntriesList()) {
+      offsets.add(entry.getOffset());
+      offsetByMethodId.putIfAbsent(entry.getMethodId(), entry.getOffset());
+    }
+  }
+
+  /**
+   * @return method ids of the UCFGs in the container, in the order they were written
+   */
+  public Set<String> methodIds() {
+    return Collections.unmodifiableSet(offsetByMethodId.keySet());
+  }
+
+  /**
+   * @return the UCFG of the given method or null if the container does not contain it
+   */
+  @CheckForNull
+  public UCFG read(String methodId) throws IOException {
+    Long offset = offsetByMethodId.get(methodId);
+    if (offset == null) {
+      return null;
+    }
+    return readAt(offset);
+  }
+
+  /**
+   * @return number of UCFGs in the container, including the ones with the same method id as a previous one
+   */
+  public int size() {
+    return offsets.size();
+  }
+
+  public List<UCFG> readAll() throws IOException {
+    return read(0, offsets.size());
+  }
+
+  /**
+   * Read the UCFGs written at positions {@code from} (inclusive) to {@code to} (exclusive) in the container. Several threads
+   * can read different ranges of the same container.
+   */
+  public List<UCFG> read(int from, int to) throws IOException {
+    List<UCFG> ucfgs = new ArrayList<>(to - from);
+    for (int i = from; i < to; i++) {
+      ucfgs.add(readAt(offsets.get(i)));
+    }
+    return ucfgs;
+  }
+
+  /**
+   * Lazily read the UCFGs of the container in the order they were written: only one UCFG at a time is held by the stream
+   * and the stream can be consumed in parallel. The stream must be consumed before this reader is closed.
+   */
+  public Stream<UCFG> stream() {
+    return StreamSupport.stream(new UCFGSpliterator(i -> readAt(offsets.get(i)), 0, offsets.size()), false);
+  }
+
+  /**
+   * Scan all the UCFGs of the container, see {@link UCFGtoProtobuf#scanProtobufFile(File)}.
+   */
+  public List<UCFGSummary> scanAll() throws IOException {
+    List<UCFGSummary> summaries = new ArrayList<>(offsets.size());
+    for (Long offset : offsets) {
+      summaries.add(UCFGtoProtobuf.scan(inputAt(offset)));
+    }
+    return summaries;
+  }
+
+  private UCFG readAt(long offset) throws IOException {
+    return UCFGtoProtobuf.fromProtobuf(Ucfg.UCFG.parseFrom(inputAt(offset)), interner, null);
+  }
+
+  /**
+   * Input limited to the UCFG message at the given offset. Mapped buffer is duplicated and the channel is read with positional reads,
+   * so that several threads can read from the same container.
+   */
+  private CodedInputStream inputAt(long offset) throws IOException {
+    if (mapped != null) {
+      ByteBuffer buffer = mapped.duplicate();
+      buffer.position((int) offset);
+      CodedInputStream input = CodedInputStream.newInstance(new ByteBufferInputStream(buffer));
+      input.pushLimit(input.readRawVarint32());
+      return input;
+    }
+    return CodedInputStream.newInstance(readBytesAt(offset));
+  }
+
+  private byte[] readBytesAt(long offset) throws IOException {
+    FileChannel channel = file.getChannel();
+    ByteBuffer header = ByteBuffer.allocate(MAX_VARINT_SIZE);
+    channel.read(header, offset);
+    CodedInputStream headerInput = CodedInputStream.newInstance(header.array(), 0, header.position());
+    int size = headerInput.readRawVarint32();
+    ByteBuffer message = ByteBuffer.allocate(size);
+    long position = offset + headerInput.getTotalBytesRead();
+    while (message.hasRemaining()) {
+      int read = channel.read(message, position + message.position());
+      if (read < 0) {
+        throw new EOFException("Truncated UCFG at offset " + offset + " in " + containerFile);
+      }
+    }
+    return message.array();
+  }
+
+  @Override
+  public void close() throws IOException {
+    mapped = null;
+    file.close();
+  }
+}
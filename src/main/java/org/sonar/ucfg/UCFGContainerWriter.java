@@ -0,0 +1,136 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.sonar.ucfg.protobuf.Ucfg;
+
+/**
+ * Writes several UCFGs in one container file.
+ * <p>
+ * Layout of a container:
+ * <ul>
+ *   <li>each UCFG as a length-delimited {@code Ucfg.UCFG} message</li>
+ *   <li>a {@code Ucfg.UCFGIndex} message mapping each method id to the offset of its UCFG</li>
+ *   <li>a fixed size trailer: offset of the index (8 bytes) and {@link #MAGIC} (4 bytes)</li>
+ * </ul>
+ * The index is written when the writer is closed.
+ */
+public class UCFGContainerWriter implements Closeable, Flushable {
+
+  static final int MAGIC = 0x55434647;
+  static final int TRAILER_SIZE = Long.BYTES + Integer.BYTES;
+
+  private final DataOutputStream out;
+  private final boolean deltaLocations;
+  private final UCFGProtobufWriter writer = new UCFGProtobufWriter();
+  private final Ucfg.UCFGIndex.Builder index = Ucfg.UCFGIndex.newBuilder();
+  private long position = 0;
+  private boolean closed = false;
+
+  private UCFGContainerWriter(OutputStream out, boolean deltaLocations) {
+    this.out = new DataOutputStream(out);
+    this.deltaLocations = deltaLocations;
+  }
+
+  public static UCFGContainerWriter create(String filename) throws IOException {
+    return create(filename, false);
+  }
+
+  /**
+   * @param deltaLocations see {@link UCFGtoProtobuf#toProtobufFile(UCFG, String, boolean)}
+   */
+  public static UCFGContainerWriter create(String filename, boolean deltaLocations) throws IOException {
+    return new UCFGContainerWriter(new BufferedOutputStream(new FileOutputStream(filename)), deltaLocations);
+  }
+
+  static UCFGContainerWriter create(String filename, boolean deltaLocations, int bufferSize) throws IOException {
+    return new UCFGContainerWriter(new BufferedOutputStream(new FileOutputStream(filename), bufferSize), deltaLocations);
+  }
+
+  boolean deltaLocations() {
+    return deltaLocations;
+  }
+
+  public void write(UCFG ucfg) throws IOException {
+    long offset = position;
+    position += writer.writeDelimited(ucfg, deltaLocations, out);
+    index.addEntries(Ucfg.UCFGIndexEntry.newBuilder().setMethodId(ucfg.methodId()).setOffset(offset));
+  }
+
+  /**
+   * Append a UCFG already serialized as a length-delimited message, with the layout options of this container.
+   */
+  void writeSerialized(String methodId, byte[] delimitedUCFG) throws IOException {
+    out.write(delimitedUCFG);
+    index.addEntries(Ucfg.UCFGIndexEntry.newBuilder().setMethodId(methodId).setOffset(position));
+    position += delimitedUCFG.length;
+  }
+
+  /**
+   * Write a batch of UCFGs, reusing the same serialization buffers for all of them.
+   */
+  public void writeAll(Iterable<UCFG> ucfgs) throws IOException {
+    for (UCFG ucfg : ucfgs) {
+      write(ucfg);
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  /**
+   * Close the file without writing the index, after a failure: the file is then not recognized as a container
+   * by {@link UCFGContainerReader#isContainer(java.io.File)}. Has no effect on a closed writer.
+   */
+  void abort() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    out.close();
+  }
+
+  /**
+   * Writes the index and closes the file. Closing an already closed writer has no effect.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      index.build().writeTo(out);
+      out.writeLong(position);
+      out.writeInt(MAGIC);
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -19,6 +19,8 @@
  */
 package org.sonar.ucfg;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
@@ -123,9 +125,9 @@ public abstract class UCFGElement {
       super(UCFGElementType.CALL, locationInFile);
       this.lhs = lhs;
       this.methodId = methodId;
-      this.argExpressions = argExpressions;
-      this.hash = Objects.hash(UCFGElementType.CALL, lhs, methodId, argExpressions, locationInFile);
-      if (!"__id".equals(methodId) && argExpressions.stream().anyMatch(e -> e instanceof Expression.FieldAccess)) {
+      this.argExpressions = Collections.unmodifiableList(new ArrayList<>(argExpressions));
+      this.hash = Objects.hash(UCFGElementType.CALL, lhs, methodId, this.argExpressions, locationInFile);
+      if (!"__id".equals(methodId) && this.argExpressions.stream().anyMatch(e -> e instanceof Expression.FieldAccess)) {
         throw new IllegalArgumentException(String.format("Field access cannot be use as argument of method : %s", methodId));
       }
     }
@@ -215,15 +217,15 @@ public abstract class UCFGElement {
 
   public static class Jump extends Terminator {
     private final List<Label> destinations;
-    private int hash;
+    private final int hash;
 
     public Jump(List<Label> destinations) {
       super(UCFGElementType.JUMP, null);
       if(destinations.isEmpty()) {
         throw new IllegalStateException("Cannot create jump with empty destinations");
       }
-      this.destinations = destinations;
-      this.hash = Objects.hash(UCFGElementType.JUMP, destinations);
+      this.destinations = Collections.unmodifiableList(new ArrayList<>(destinations));
+      this.hash = Objects.hash(UCFGElementType.JUMP, this.destinations);
     }
 
     @Override
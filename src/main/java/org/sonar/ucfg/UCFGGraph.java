@@ -0,0 +1,360 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import org.sonar.ucfg.util.StronglyConnectedComponents;
+
+/**
+ * Compact, immutable view of the (non redundant) basic blocks of a UCFG, see {@link UCFG#graph()}.
+ * <p>
+ * Blocks are numbered from 0 to {@link #size()} - 1. Successors and predecessors of all blocks are stored in two arrays,
+ * each block owning a contiguous range given by an offsets array (compressed sparse row layout), so that graph algorithms
+ * can iterate over edges without hashing labels or boxing indexes.
+ */
+public final class UCFGGraph {
+
+  private final BasicBlock[] blocks;
+  private final Map<Label, Integer> indexByLabel;
+  private final int[] entries;
+  // blocks returning from the method, and DEAD_END
+  private final int[] exits;
+  // successors of block b are successors[successorOffsets[b]] to successors[successorOffsets[b + 1] - 1]
+  private final int[] successorOffsets;
+  private final int[] successors;
+  private final int[] predecessorOffsets;
+  private final int[] predecessors;
+  private volatile Orders orders;
+
+  UCFGGraph(Map<Label, BasicBlock> basicBlocks, Set<BasicBlock> entryBlocks) {
+    int size = basicBlocks.size();
+    blocks = basicBlocks.values().toArray(new BasicBlock[size]);
+    indexByLabel = new HashMap<>(size * 2);
+    for (int i = 0; i < size; i++) {
+      indexByLabel.put(blocks[i].label(), i);
+    }
+    entries = entryBlocks.stream().mapToInt(b -> index(b.label())).toArray();
+    exits = IntStream.range(0, size).filter(b -> isExit(blocks[b])).toArray();
+
+    successorOffsets = new int[size + 1];
+    for (int b = 0; b < size; b++) {
+      successorOffsets[b + 1] = successorOffsets[b] + blocks[b].successors().size();
+    }
+    successors = new int[successorOffsets[size]];
+    int[] predecessorCounts = new int[size];
+    for (int b = 0; b < size; b++) {
+      List<Label> labels = blocks[b].successors();
+      for (int i = 0; i < labels.size(); i++) {
+        int successor = index(labels.get(i));
+        successors[successorOffsets[b] + i] = successor;
+        predecessorCounts[successor]++;
+      }
+    }
+
+    predecessorOffsets = new int[size + 1];
+    for (int b = 0; b < size; b++) {
+      predecessorOffsets[b + 1] = predecessorOffsets[b] + predecessorCounts[b];
+    }
+    predecessors = new int[successors.length];
+    int[] next = Arrays.copyOf(predecessorOffsets, size);
+    for (int b = 0; b < size; b++) {
+      for (int s = successorOffsets[b]; s < successorOffsets[b + 1]; s++) {
+        predecessors[next[successors[s]]++] = b;
+      }
+    }
+  }
+
+  public int size() {
+    return blocks.length;
+  }
+
+  public BasicBlock block(int index) {
+    return blocks[index];
+  }
+
+  /**
+   * @throws IllegalArgumentException if no block of the graph has this label
+   */
+  public int index(Label label) {
+    Integer index = indexByLabel.get(label);
+    if (index == null) {
+      throw new IllegalArgumentException("No basic block with label " + label.id());
+    }
+    return index;
+  }
+
+  public int entryCount() {
+    return entries.length;
+  }
+
+  public int entry(int i) {
+    return entries[i];
+  }
+
+  /**
+   * Exit blocks are the blocks ending with a return, and {@link BasicBlock#DEAD_END} when the graph has a cycle without exit.
+   */
+  public int exitCount() {
+    return exits.length;
+  }
+
+  public int exit(int i) {
+    return exits[i];
+  }
+
+  private static boolean isExit(BasicBlock block) {
+    return block.terminator().type() == UCFGElement.UCFGElementType.RET || block.isDeadEnd();
+  }
+
+  public int successorCount(int block) {
+    return successorOffsets[block + 1] - successorOffsets[block];
+  }
+
+  /**
+   * @return index of the i-th successor of the block, in the order of the destinations of its jump
+   */
+  public int successor(int block, int i) {
+    return successors[successorOffsets[block] + i];
+  }
+
+  public void forEachSuccessor(int block, IntConsumer consumer) {
+    for (int s = successorOffsets[block]; s < successorOffsets[block + 1]; s++) {
+      consumer.accept(successors[s]);
+    }
+  }
+
+  public int predecessorCount(int block) {
+    return predecessorOffsets[block + 1] - predecessorOffsets[block];
+  }
+
+  /**
+   * @return index of the i-th predecessor of the block, predecessors being sorted by index
+   */
+  public int predecessor(int block, int i) {
+    return predecessors[predecessorOffsets[block] + i];
+  }
+
+  public void forEachPredecessor(int block, IntConsumer consumer) {
+    for (int p = predecessorOffsets[block]; p < predecessorOffsets[block + 1]; p++) {
+      consumer.accept(predecessors[p]);
+    }
+  }
+
+  /**
+   * @return block visited at the given position of a reverse postorder of a depth-first traversal from the entries: unless
+   * it is the target of a back edge, a block comes after all its predecessors. Blocks not reachable from the entries come last.
+   */
+  public int blockInReversePostorder(int position) {
+    return orders().blockInReversePostorder(position);
+  }
+
+  /**
+   * @return position of the block in reverse postorder, usable as a dense priority by worklist algorithms
+   */
+  public int reversePostorderNumber(int block) {
+    return orders().reversePostorderNumber(block);
+  }
+
+  public int blockInPostorder(int position) {
+    return orders().postorder[position];
+  }
+
+  /**
+   * Strongly connected components are numbered in topological order: if a block of component c1 jumps to a block of another
+   * component c2, then c1 < c2.
+   */
+  public int componentCount() {
+    return orders().componentOffsets.length - 1;
+  }
+
+  public int component(int block) {
+    return orders().componentOf[block];
+  }
+
+  public int componentSize(int component) {
+    Orders o = orders();
+    return o.componentOffsets[component + 1] - o.componentOffsets[component];
+  }
+
+  /**
+   * @return i-th block of the component, blocks of a component being sorted by reverse postorder
+   */
+  public int componentBlock(int component, int i) {
+    Orders o = orders();
+    return o.componentBlocks[o.componentOffsets[component] + i];
+  }
+
+  /**
+   * @return true when the component is a loop: it has several blocks, or a single block jumping to itself
+   */
+  public boolean isLoop(int component) {
+    if (componentSize(component) > 1) {
+      return true;
+    }
+    int block = componentBlock(component, 0);
+    for (int s = successorOffsets[block]; s < successorOffsets[block + 1]; s++) {
+      if (successors[s] == block) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Orders orders() {
+    Orders result = orders;
+    if (result == null) {
+      result = new Orders();
+      orders = result;
+    }
+    return result;
+  }
+
+  /**
+   * Traversal orders, computed in time linear in the size of the graph. Blocks which cannot be reached from the entries are
+   * traversed after the reachable ones, in index order, and come after them both in postorder and in reverse postorder.
+   */
+  private final class Orders {
+    private final int[] postorder;
+    private final int[] postorderNumber;
+    // the first reachableCount blocks of the postorder are the ones reachable from the entries
+    private int reachableCount;
+    private final int[] componentOf;
+    private final int[] componentOffsets;
+    private final int[] componentBlocks;
+
+    private Orders() {
+      int size = blocks.length;
+      postorder = new int[size];
+      postorderNumber = new int[size];
+      computePostorder();
+      componentOf = new int[size];
+      int count = computeComponents();
+      // components sorted by topological order, blocks of a component by reverse postorder
+      componentOffsets = new int[count + 1];
+      for (int b = 0; b < size; b++) {
+        componentOffsets[componentOf[b] + 1]++;
+      }
+      for (int c = 0; c < count; c++) {
+        componentOffsets[c + 1] += componentOffsets[c];
+      }
+      componentBlocks = new int[size];
+      int[] next = Arrays.copyOf(componentOffsets, count);
+      for (int position = 0; position < size; position++) {
+        int block = blockInReversePostorder(position);
+        componentBlocks[next[componentOf[block]]++] = block;
+      }
+    }
+
+    private void computePostorder() {
+      int size = blocks.length;
+      boolean[] visited = new boolean[size];
+      // explicit stack of blocks with the position of their next successor to visit
+      int[] stack = new int[size];
+      int[] nextSuccessor = new int[size];
+      int count = 0;
+      for (int entry : entries) {
+        count = visit(entry, visited, stack, nextSuccessor, count);
+      }
+      reachableCount = count;
+      for (int b = 0; b < size; b++) {
+        count = visit(b, visited, stack, nextSuccessor, count);
+      }
+    }
+
+    /**
+     * Depth-first traversal from the root, skipping visited blocks.
+     * @return number of blocks in postorder once the blocks reachable from the root are added
+     */
+    private int visit(int root, boolean[] visited, int[] stack, int[] nextSuccessor, int count) {
+      if (visited[root]) {
+        return count;
+      }
+      visited[root] = true;
+      int depth = 0;
+      stack[0] = root;
+      nextSuccessor[0] = successorOffsets[root];
+      while (depth >= 0) {
+        int block = stack[depth];
+        if (nextSuccessor[depth] < successorOffsets[block + 1]) {
+          int successor = successors[nextSuccessor[depth]++];
+          if (!visited[successor]) {
+            visited[successor] = true;
+            depth++;
+            stack[depth] = successor;
+            nextSuccessor[depth] = successorOffsets[successor];
+          }
+        } else {
+          postorderNumber[block] = count;
+          postorder[count++] = block;
+          depth--;
+        }
+      }
+      return count;
+    }
+
+    /**
+     * Reverse postorder keeps the blocks reachable from the entries first: each part of the postorder is reversed on its own.
+     */
+    private int blockInReversePostorder(int position) {
+      int size = blocks.length;
+      return position < reachableCount ? postorder[reachableCount - 1 - position] : postorder[size - 1 - position + reachableCount];
+    }
+
+    private int reversePostorderNumber(int block) {
+      int size = blocks.length;
+      int number = postorderNumber[block];
+      return number < reachableCount ? (reachableCount - 1 - number) : (size - 1 - number + reachableCount);
+    }
+
+    /**
+     * Components are found in reverse topological order, and numbered the other way round.
+     * @return number of components
+     */
+    private int computeComponents() {
+      int size = blocks.length;
+      int found = StronglyConnectedComponents.compute(new StronglyConnectedComponents.Graph() {
+        @Override
+        public int size() {
+          return size;
+        }
+
+        @Override
+        public int successorCount(int node) {
+          return UCFGGraph.this.successorCount(node);
+        }
+
+        @Override
+        public int successor(int node, int i) {
+          return UCFGGraph.this.successor(node, i);
+        }
+      }, entries, componentOf);
+      for (int b = 0; b < size; b++) {
+        componentOf[b] = found - 1 - componentOf[b];
+      }
+      return found;
+    }
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.ucfg.util.Interner;
+import org.sonar.ucfg.util.Interners;
+
+/**
+ * Deserializes many UCFG files and containers concurrently on a provided executor
+ * (for instance a {@link java.util.concurrent.ForkJoinPool}).
+ * <p>
+ * At most {@code maxPendingFiles} files are decoded or waiting to be consumed at any time, and results are delivered to the consumer
+ * in the order of the input files. A file which cannot be read is reported as a failed {@link Result} and does not abort the batch.
+ * <p>
+ * A container is split in ranges of {@code ucfgsPerTask} UCFGs, decoded concurrently with the same limit of pending ranges, each range
+ * being delivered as its own {@link Result} in the order of the container.
+ */
+public class UCFGLoader {
+
+  private static final int DEFAULT_UCFGS_PER_TASK = 64;
+
+  private final ExecutorService executor;
+  private final int maxPendingFiles;
+  private final int ucfgsPerTask;
+  private Interner interner = Interners.none();
+
+  public UCFGLoader(ExecutorService executor, int maxPendingFiles) {
+    this(executor, maxPendingFiles, DEFAULT_UCFGS_PER_TASK);
+  }
+
+  public UCFGLoader(ExecutorService executor, int maxPendingFiles, int ucfgsPerTask) {
+    if (maxPendingFiles < 1) {
+      throw new IllegalArgumentException("maxPendingFiles should be strictly positive: " + maxPendingFiles);
+    }
+    if (ucfgsPerTask < 1) {
+      throw new IllegalArgumentException("ucfgsPerTask should be strictly positive: " + ucfgsPerTask);
+    }
+    this.executor = executor;
+    this.maxPendingFiles = maxPendingFiles;
+    this.ucfgsPerTask = ucfgsPerTask;
+  }
+
+  /**
+   * Intern the symbols of the loaded UCFGs with the given interner, see {@link UCFGtoProtobuf#fromProtobufFile(File, Interner)}.
+   */
+  public UCFGLoader internWith(Interner interner) {
+    this.interner = interner;
+    return this;
+  }
+
+  public List<Result> load(List<File> files) throws InterruptedException {
+    List<Result> results = new ArrayList<>(files.size());
+    load(files, results::add);
+    return results;
+  }
+
+  /**
+   * Results are passed to the consumer on the calling thread, in the order of the files.
+   */
+  public void load(List<File> files, Consumer<Result> consumer) throws InterruptedException {
+    Deque<Future<Result>> pending = new ArrayDeque<>(maxPendingFiles);
+    Deque<File> pendingFiles = new ArrayDeque<>(maxPendingFiles);
+    Iterator<File> remaining = files.iterator();
+    try {
+      while (remaining.hasNext() || !pending.isEmpty()) {
+        while (remaining.hasNext() && pending.size() < maxPendingFiles) {
+          File file = remaining.next();
+          pendingFiles.add(file);
+          pending.add(executor.submit(() -> loadFile(file)));
+        }
+        File file = pendingFiles.remove();
+        Result result = pending.remove().get();
+        if (result == null) {
+          loadContainer(file, consumer);
+        } else {
+          consumer.accept(result);
+        }
+      }
+    } catch (ExecutionException e) {
+      // tasks never throw
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      pending.forEach(f -> f.cancel(true));
+    }
+  }
+
+  /**
+   * @return the single UCFG of the file, or null if the file is a container
+   */
+  @CheckForNull
+  private Result loadFile(File file) {
+    try {
+      if (UCFGContainerReader.isContainer(file)) {
+        return null;
+      }
+      return new Result(file, Collections.singletonList(UCFGtoProtobuf.fromProtobufFile(file, interner)), null);
+    } catch (Exception e) {
+      return new Result(file, Collections.emptyList(), e);
+    }
+  }
+
+  /**
+   * The index of the container is read on the calling thread, then ranges of UCFGs are decoded by the executor.
+   */
+  private void loadContainer(File file, Consumer<Result> consumer) throws InterruptedException, ExecutionException {
+    UCFGContainerReader container;
+    try {
+      container = UCFGContainerReader.open(file, interner);
+    } catch (IOException | RuntimeException e) {
+      consumer.accept(new Result(file, Collections.emptyList(), e));
+      return;
+    }
+    int size = container.size();
+    Deque<Future<Result>> pending = new ArrayDeque<>(maxPendingFiles);
+    try {
+      if (size == 0) {
+        consumer.accept(new Result(file, Collections.emptyList(), null));
+      }
+      int next = 0;
+      while (next < size || !pending.isEmpty()) {
+        while (next < size && pending.size() < maxPendingFiles) {
+          int from = next;
+          int to = Math.min(size, from + ucfgsPerTask);
+          pending.add(executor.submit(() -> loadRange(file, container, from, to)));
+          next = to;
+        }
+        consumer.accept(pending.remove().get());
+      }
+    } finally {
+      pending.forEach(f -> f.cancel(false));
+      try {
+        container.close();
+      } catch (IOException e) {
+        // all the UCFGs have been read, or reading was aborted
+      }
+    }
+  }
+
+  private static Result loadRange(File file, UCFGContainerReader container, int from, int to) {
+    try {
+      return new Result(file, container.read(from, to), null);
+    } catch (Exception e) {
+      return new Result(file, Collections.emptyList(), e);
+    }
+  }
+
+  public static class Result {
+    private final File file;
+    private final List<UCFG> ucfgs;
+    private final Exception failure;
+
+    private Result(File file, List<UCFG> ucfgs, @Nullable Exception failure) {
+      this.file = file;
+      this.ucfgs = ucfgs;
+      this.failure = failure;
+    }
+
+    public File file() {
+      return file;
+    }
+
+    /**
+     * @return UCFGs read from the file: a single one for a UCFG file, a range of the UCFGs of a container, none on failure
+     */
+    public List<UCFG> ucfgs() {
+      return ucfgs;
+    }
+
+    public boolean isSuccess() {
+      return failure == null;
+    }
+
+    @CheckForNull
+    public Exception failure() {
+      return failure;
+    }
+  }
+}
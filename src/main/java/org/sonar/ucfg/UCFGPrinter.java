@@ -19,35 +19,166 @@
  */
 package org.sonar.ucfg;
 
-import java.util.stream.Collectors;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import org.sonar.ucfg.util.WorkSet;
 
+/**
+ * Human readable dump of a UCFG, for debugging.
+ * <p>
+ * Each basic block is printed in one reused buffer which is then appended to the target, so printing does not create a string
+ * per element. Locations can be omitted and printing can be restricted to some blocks of the UCFG.
+ */
 public class UCFGPrinter {
 
   private final UCFG ucfg;
+  private boolean printLocations = true;
+  @Nullable
+  private Set<Label> printedBlocks = null;
 
   public UCFGPrinter(UCFG ucfg) {
     this.ucfg = ucfg;
   }
 
-  @Override
-  public String toString() {
-    StringBuilder sb = new StringBuilder();
+  public UCFGPrinter omitLocations() {
+    printLocations = false;
+    return this;
+  }
+
+  /**
+   * Only print the blocks with the given labels.
+   */
+  public UCFGPrinter onlyBlocks(Collection<Label> labels) {
+    printedBlocks = new HashSet<>(labels);
+    return this;
+  }
+
+  /**
+   * Only print the blocks reachable from the blocks with the given labels, including them.
+   */
+  public UCFGPrinter reachableFrom(Label... labels) {
+    Set<Label> reached = new HashSet<>();
+    WorkSet<Label> workSet = new WorkSet<>(Arrays.asList(labels));
+    Map<Label, BasicBlock> basicBlocks = ucfg.basicBlocks();
+    while (!workSet.isEmpty()) {
+      Label label = workSet.pop();
+      BasicBlock block = basicBlocks.get(label);
+      if (block != null && reached.add(label)) {
+        block.successors().forEach(workSet::add);
+      }
+    }
+    printedBlocks = reached;
+    return this;
+  }
+
+  public void print(Appendable out) throws IOException {
+    StringBuilder buffer = out instanceof StringBuilder ? (StringBuilder) out : new StringBuilder(256);
+    buffer.append("Signature: ").append(ucfg.methodId()).append('\n');
+    buffer.append("Parameters:\n");
+    List<Expression.Variable> parameters = ucfg.parameters();
+    for (int i = 0; i < parameters.size(); i++) {
+      buffer.append("  #").append(i).append(" -> ").append(parameters.get(i).id()).append('\n');
+    }
+    buffer.append("Instructions:\n");
+    boolean first = true;
+    for (BasicBlock block : ucfg.basicBlocks().values()) {
+      if (printedBlocks != null && !printedBlocks.contains(block.label())) {
+        continue;
+      }
+      if (!first) {
+        buffer.append('\n');
+      }
+      first = false;
+      print(block, buffer);
+      if (buffer != out) {
+        out.append(buffer);
+        buffer.setLength(0);
+      }
+    }
+    if (buffer != out) {
+      out.append(buffer);
+    }
+  }
+
+  private void print(BasicBlock block, StringBuilder out) {
+    out.append("  label ").append(block.label().id()).append(":\n");
+    boolean first = true;
+    for (UCFGElement.Instruction instruction : block.instructions()) {
+      if (!first) {
+        out.append('\n');
+      }
+      first = false;
+      if (instruction.type() == UCFGElement.UCFGElementType.CALL) {
+        print((UCFGElement.AssignCall) instruction, out);
+      } else {
+        print((UCFGElement.NewObject) instruction, out);
+      }
+    }
+    out.append('\n');
+    if (block.terminator().type() == UCFGElement.UCFGElementType.RET) {
+      UCFGElement.Ret ret = (UCFGElement.Ret) block.terminator();
+      out.append("     ret ");
+      ret.getReturnedExpression().appendTo(out);
+      print(ret.location(), out);
+    } else {
+      out.append("    jump ");
+      List<Label> destinations = ((UCFGElement.Jump) block.terminator()).destinations();
+      for (int i = 0; i < destinations.size(); i++) {
+        if (i > 0) {
+          out.append(", ");
+        }
+        out.append(destinations.get(i).id());
+      }
+    }
+  }
+
+  private void print(UCFGElement.AssignCall call, StringBuilder out) {
+    out.append("    call ");
+    call.getLhs().appendTo(out);
+    out.append(" = ").append(call.getMethodId()).append(" (");
+    List<Expression> args = call.getArgExpressions();
+    for (int i = 0; i < args.size(); i++) {
+      if (i > 0) {
+        out.append(", ");
+      }
+      args.get(i).appendTo(out);
+    }
+    out.append(')');
+    print(call.location(), out);
+  }
 
-    sb.append("Signature: ");
-    sb.append(ucfg.methodId());
-    sb.append('\n');
+  private void print(UCFGElement.NewObject newObject, StringBuilder out) {
+    out.append("  ");
+    newObject.getLhs().appendTo(out);
+    out.append(" = new ").append(newObject.instanceType());
+    print(newObject.location(), out);
+  }
 
-    sb.append("Parameters:\n");
-    for (int i = 0; i < ucfg.parameters().size(); i++) {
-      sb.append("  #");
-      sb.append(i);
-      sb.append(" -> ");
-      sb.append(ucfg.parameters().get(i));
-      sb.append('\n');
+  /**
+   * Nothing when there is no location.
+   */
+  private void print(@Nullable LocationInFile location, StringBuilder out) {
+    if (printLocations && location != null) {
+      location.appendTo(out);
     }
+  }
 
-    sb.append("Instructions:\n");
-    sb.append(ucfg.basicBlocks().values().stream().map(BasicBlock::toString).collect(Collectors.joining("\n")));
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    try {
+      print(sb);
+    } catch (IOException e) {
+      // no I/O on a StringBuilder
+      throw new UncheckedIOException(e);
+    }
     return sb.toString();
   }
 
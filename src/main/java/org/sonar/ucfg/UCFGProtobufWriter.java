@@ -0,0 +1,599 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.sonar.ucfg.protobuf.Ucfg;
+
+/**
+ * Serializes UCFGs in the protobuf layout of {@link UCFGtoProtobuf#CURRENT_VERSION} straight from the model, without building
+ * intermediate {@code Ucfg.UCFG} messages. Bytes written are the canonical protobuf encoding of the equivalent {@code Ucfg.UCFG}
+ * message, fields being written in field number order, so they can be parsed by the generated classes. Tests compare them to the
+ * bytes of messages built with the generated builders ({@code UCFGProtobufEncoder} in test sources).
+ * <p>
+ * Serialization is done in three passes over the UCFG: strings are collected in the string table, then sizes of nested messages
+ * are computed, then the message is written in a buffer reused from one UCFG to the next.
+ * Instances are not thread safe.
+ */
+final class UCFGProtobufWriter {
+
+  // buffers above this size are not kept for the next UCFG
+  private static final int MAX_POOLED_BUFFER_SIZE = 1 << 20;
+
+  /**
+   * Writers keep their buffers from one UCFG to the next: one per thread serializing UCFGs.
+   */
+  private static final ThreadLocal<UCFGProtobufWriter> PER_THREAD = ThreadLocal.withInitial(UCFGProtobufWriter::new);
+
+  private final Map<String, Integer> stringRefs = new HashMap<>();
+  private final List<String> strings = new ArrayList<>();
+  // sizes of nested messages, in the order they are written
+  private int[] sizes = new int[256];
+  private int sizeCount = 0;
+  private int sizeCursor = 0;
+  private byte[] buffer = new byte[8192];
+
+  private boolean deltaLocations = false;
+  // location the next encoded location is relative to, when deltaLocations is set
+  @Nullable
+  private LocationInFile enclosingLocation = null;
+
+  static UCFGProtobufWriter perThread() {
+    return PER_THREAD.get();
+  }
+
+  void write(UCFG ucfg, boolean deltaLocations, OutputStream out) throws IOException {
+    int length = serialize(ucfg, deltaLocations, false);
+    out.write(buffer, 0, length);
+    release();
+  }
+
+  /**
+   * Write the UCFG preceded by its size, see {@code MessageLite#writeDelimitedTo}.
+   * @return number of bytes written
+   */
+  int writeDelimited(UCFG ucfg, boolean deltaLocations, OutputStream out) throws IOException {
+    int length = serialize(ucfg, deltaLocations, true);
+    out.write(buffer, 0, length);
+    release();
+    return length;
+  }
+
+  byte[] toByteArray(UCFG ucfg, boolean deltaLocations) throws IOException {
+    return toByteArray(ucfg, deltaLocations, false);
+  }
+
+  byte[] toDelimitedByteArray(UCFG ucfg, boolean deltaLocations) throws IOException {
+    return toByteArray(ucfg, deltaLocations, true);
+  }
+
+  private byte[] toByteArray(UCFG ucfg, boolean deltaLocations, boolean delimited) throws IOException {
+    int length = serialize(ucfg, deltaLocations, delimited);
+    byte[] bytes = Arrays.copyOf(buffer, length);
+    release();
+    return bytes;
+  }
+
+  private int serialize(UCFG ucfg, boolean deltaLocations, boolean delimited) throws IOException {
+    this.deltaLocations = deltaLocations;
+    stringRefs.clear();
+    strings.clear();
+    sizeCount = 0;
+    sizeCursor = 0;
+    collectStrings(ucfg);
+    int size = measure(ucfg);
+    int length = delimited ? (CodedOutputStream.computeUInt32SizeNoTag(size) + size) : size;
+    if (buffer.length < length) {
+      buffer = new byte[Math.max(length, buffer.length * 2)];
+    }
+    CodedOutputStream out = CodedOutputStream.newInstance(buffer, 0, length);
+    if (delimited) {
+      out.writeUInt32NoTag(size);
+    }
+    write(ucfg, out);
+    out.checkNoSpaceLeft();
+    return length;
+  }
+
+  private void release() {
+    enclosingLocation = null;
+    if (buffer.length > MAX_POOLED_BUFFER_SIZE) {
+      buffer = new byte[MAX_POOLED_BUFFER_SIZE];
+    }
+  }
+
+  // Strings table: strings are numbered in the order of their first reference while traversing the UCFG, part of the layout
+  // checked against UCFGProtobufEncoder in tests
+
+  private int ref(String string) {
+    Integer ref = stringRefs.get(string);
+    if (ref == null) {
+      ref = strings.size();
+      stringRefs.put(string, ref);
+      strings.add(string);
+    }
+    return ref;
+  }
+
+  private void collectStrings(UCFG ucfg) {
+    LocationInFile location = ucfg.location();
+    enclosingLocation = null;
+    if (location != null) {
+      collectStrings(location);
+    }
+    ref(ucfg.methodId());
+    ucfg.parameters().forEach(p -> ref(p.id()));
+    for (BasicBlock basicBlock : ucfg.basicBlocks().values()) {
+      enclosingLocation = location;
+      LocationInFile blockLocation = basicBlock.locationInFile();
+      if (blockLocation != null) {
+        collectStrings(blockLocation);
+        enclosingLocation = blockLocation;
+      }
+      for (UCFGElement.Instruction instruction : basicBlock.instructions()) {
+        if (instruction.type() == UCFGElement.UCFGElementType.CALL) {
+          UCFGElement.AssignCall assignCall = (UCFGElement.AssignCall) instruction;
+          ref(assignCall.getMethodId());
+          assignCall.getArgExpressions().forEach(this::collectStrings);
+          collectStrings(assignCall.location(), assignCall.getLhs());
+        } else {
+          UCFGElement.NewObject newObject = (UCFGElement.NewObject) instruction;
+          ref(newObject.instanceType());
+          collectStrings(newObject.location(), newObject.getLhs());
+        }
+      }
+      if (basicBlock.terminator().type() == UCFGElement.UCFGElementType.RET) {
+        UCFGElement.Ret ret = (UCFGElement.Ret) basicBlock.terminator();
+        collectStrings(ret.getReturnedExpression());
+        if (ret.location() != null) {
+          collectStrings(ret.location());
+        }
+      }
+    }
+  }
+
+  private void collectStrings(@Nullable LocationInFile location, Expression lhs) {
+    if (location != null) {
+      collectStrings(location);
+    }
+    collectStrings(lhs);
+  }
+
+  private void collectStrings(Expression expression) {
+    if (expression.isConstant() || expression == Expression.THIS) {
+      return;
+    }
+    if (expression instanceof Expression.ClassName) {
+      ref(((Expression.ClassName) expression).typeName());
+    } else if (expression instanceof Expression.FieldAccess) {
+      Expression.FieldAccess fieldAccess = (Expression.FieldAccess) expression;
+      collectStrings(fieldAccess.object());
+      ref(fieldAccess.field().id());
+    } else {
+      ref(((Expression.Variable) expression).id());
+    }
+  }
+
+  private void collectStrings(LocationInFile location) {
+    if (!isDelta() || !location.getFileId().equals(enclosingLocation.getFileId())) {
+      ref(location.getFileId());
+    }
+  }
+
+  private boolean isDelta() {
+    return deltaLocations && enclosingLocation != null;
+  }
+
+  // Sizes: nested messages are measured in the order they are written, their size is stored for the write pass
+
+  private int reserveSize() {
+    if (sizeCount == sizes.length) {
+      sizes = Arrays.copyOf(sizes, sizes.length * 2);
+    }
+    return sizeCount++;
+  }
+
+  private static int messageSize(int fieldNumber, int size) {
+    return CodedOutputStream.computeTagSize(fieldNumber) + CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+  }
+
+  private static int int32Size(int fieldNumber, int value) {
+    return value == 0 ? 0 : CodedOutputStream.computeInt32Size(fieldNumber, value);
+  }
+
+  private static int sint32Size(int fieldNumber, int value) {
+    return value == 0 ? 0 : CodedOutputStream.computeSInt32Size(fieldNumber, value);
+  }
+
+  private static int stringSize(int fieldNumber, String value) {
+    return value.isEmpty() ? 0 : CodedOutputStream.computeStringSize(fieldNumber, value);
+  }
+
+  private int measure(UCFG ucfg) {
+    LocationInFile location = ucfg.location();
+    enclosingLocation = null;
+    int size = 0;
+    if (location != null) {
+      size += messageSize(Ucfg.UCFG.LOCATION_FIELD_NUMBER, measure(location));
+    }
+    for (BasicBlock entry : ucfg.entryBlocks()) {
+      size += CodedOutputStream.computeStringSize(Ucfg.UCFG.ENTRIES_FIELD_NUMBER, entry.label().id());
+    }
+    for (BasicBlock basicBlock : ucfg.basicBlocks().values()) {
+      size += messageSize(Ucfg.UCFG.BASICBLOCKS_FIELD_NUMBER, measure(basicBlock, location));
+    }
+    size += int32Size(Ucfg.UCFG.VERSION_FIELD_NUMBER, UCFGtoProtobuf.CURRENT_VERSION);
+    for (String string : strings) {
+      size += CodedOutputStream.computeStringSize(Ucfg.UCFG.STRINGS_FIELD_NUMBER, string);
+    }
+    size += int32Size(Ucfg.UCFG.METHODIDREF_FIELD_NUMBER, ref(ucfg.methodId()));
+    int parameterRefsSize = parameterRefsSize(ucfg);
+    if (parameterRefsSize > 0) {
+      size += messageSize(Ucfg.UCFG.PARAMETERREFS_FIELD_NUMBER, parameterRefsSize);
+    }
+    if (deltaLocations) {
+      size += CodedOutputStream.computeBoolSize(Ucfg.UCFG.DELTALOCATIONS_FIELD_NUMBER, true);
+    }
+    return size;
+  }
+
+  private int parameterRefsSize(UCFG ucfg) {
+    int size = 0;
+    for (Expression.Variable parameter : ucfg.parameters()) {
+      size += CodedOutputStream.computeInt32SizeNoTag(ref(parameter.id()));
+    }
+    return size;
+  }
+
+  private int measure(BasicBlock basicBlock, @Nullable LocationInFile ucfgLocation) {
+    int slot = reserveSize();
+    int size = stringSize(Ucfg.BasicBlock.ID_FIELD_NUMBER, basicBlock.label().id());
+    enclosingLocation = ucfgLocation;
+    LocationInFile location = basicBlock.locationInFile();
+    if (location != null) {
+      size += messageSize(Ucfg.BasicBlock.LOCATION_FIELD_NUMBER, measure(location));
+      enclosingLocation = location;
+    }
+    for (UCFGElement.Instruction instruction : basicBlock.instructions()) {
+      size += messageSize(Ucfg.BasicBlock.INSTRUCTIONS_FIELD_NUMBER, measure(instruction));
+    }
+    if (basicBlock.terminator().type() == UCFGElement.UCFGElementType.RET) {
+      size += messageSize(Ucfg.BasicBlock.RET_FIELD_NUMBER, measure((UCFGElement.Ret) basicBlock.terminator()));
+    } else {
+      size += messageSize(Ucfg.BasicBlock.JUMP_FIELD_NUMBER, measure((UCFGElement.Jump) basicBlock.terminator()));
+    }
+    sizes[slot] = size;
+    return size;
+  }
+
+  private int measure(UCFGElement.Instruction instruction) {
+    int slot = reserveSize();
+    int size;
+    if (instruction.type() == UCFGElement.UCFGElementType.CALL) {
+      size = messageSize(Ucfg.Instruction.ASSIGNCALL_FIELD_NUMBER, measure((UCFGElement.AssignCall) instruction));
+    } else {
+      size = messageSize(Ucfg.Instruction.NEWOBJECT_FIELD_NUMBER, measure((UCFGElement.NewObject) instruction));
+    }
+    sizes[slot] = size;
+    return size;
+  }
+
+  private int measure(UCFGElement.AssignCall assignCall) {
+    int slot = reserveSize();
+    int size = measureLocationAndTarget(assignCall.location(), assignCall.getLhs());
+    for (Expression arg : assignCall.getArgExpressions()) {
+      size += messageSize(Ucfg.AssignCall.ARGS_FIELD_NUMBER, measure(arg));
+    }
+    size += int32Size(Ucfg.AssignCall.METHODIDREF_FIELD_NUMBER, ref(assignCall.getMethodId()));
+    sizes[slot] = size;
+    return size;
+  }
+
+  private int measure(UCFGElement.NewObject newObject) {
+    int slot = reserveSize();
+    int size = measureLocationAndTarget(newObject.location(), newObject.getLhs());
+    size += int32Size(Ucfg.NewObject.TYPEREF_FIELD_NUMBER, ref(newObject.instanceType()));
+    sizes[slot] = size;
+    return size;
+  }
+
+  /**
+   * Location and target fields have the same numbers in AssignCall and NewObject messages.
+   */
+  private int measureLocationAndTarget(@Nullable LocationInFile location, Expression lhs) {
+    int size = 0;
+    if (location != null) {
+      size += messageSize(Ucfg.AssignCall.LOCATION_FIELD_NUMBER, measure(location));
+    }
+    if (lhs instanceof Expression.Variable) {
+      size += messageSize(Ucfg.AssignCall.VARIABLE_FIELD_NUMBER, measure((Expression.Variable) lhs));
+    } else {
+      size += messageSize(Ucfg.AssignCall.FIELDACCESS_FIELD_NUMBER, measure((Expression.FieldAccess) lhs));
+    }
+    return size;
+  }
+
+  private int measure(UCFGElement.Ret ret) {
+    int slot = reserveSize();
+    int size = 0;
+    if (ret.location() != null) {
+      size += messageSize(Ucfg.Return.LOCATION_FIELD_NUMBER, measure(ret.location()));
+    }
+    size += messageSize(Ucfg.Return.RETURNEDEXPRESSION_FIELD_NUMBER, measure(ret.getReturnedExpression()));
+    sizes[slot] = size;
+    return size;
+  }
+
+  private static int measure(UCFGElement.Jump jump) {
+    int size = 0;
+    for (Label destination : jump.destinations()) {
+      size += CodedOutputStream.computeStringSize(Ucfg.Jump.DESTINATIONS_FIELD_NUMBER, destination.id());
+    }
+    return size;
+  }
+
+  private int measure(Expression expression) {
+    int slot = reserveSize();
+    int size;
+    if (expression.isConstant()) {
+      size = messageSize(Ucfg.Expression.CONST_FIELD_NUMBER, stringSize(Ucfg.Constant.VALUE_FIELD_NUMBER, ((Expression.Constant) expression).value()));
+    } else if (expression == Expression.THIS) {
+      size = messageSize(Ucfg.Expression.THIS_FIELD_NUMBER, 0);
+    } else if (expression instanceof Expression.ClassName) {
+      size = messageSize(Ucfg.Expression.CLASSNAME_FIELD_NUMBER, measure((Expression.ClassName) expression));
+    } else if (expression instanceof Expression.FieldAccess) {
+      size = messageSize(Ucfg.Expression.FIELDACCESS_FIELD_NUMBER, measure((Expression.FieldAccess) expression));
+    } else {
+      size = messageSize(Ucfg.Expression.VAR_FIELD_NUMBER, measure((Expression.Variable) expression));
+    }
+    sizes[slot] = size;
+    return size;
+  }
+
+  private int measure(Expression.FieldAccess fieldAccess) {
+    int slot = reserveSize();
+    int size;
+    Expression object = fieldAccess.object();
+    if (object == Expression.THIS) {
+      size = messageSize(Ucfg.FieldAccess.THIS_FIELD_NUMBER, 0);
+    } else if (object instanceof Expression.Variable) {
+      size = messageSize(Ucfg.FieldAccess.OBJECT_FIELD_NUMBER, measure((Expression.Variable) object));
+    } else {
+      size = messageSize(Ucfg.FieldAccess.CLASSNAME_FIELD_NUMBER, measure((Expression.ClassName) object));
+    }
+    size += messageSize(Ucfg.FieldAccess.FIELD_FIELD_NUMBER, measure(fieldAccess.field()));
+    sizes[slot] = size;
+    return size;
+  }
+
+  private int measure(Expression.Variable variable) {
+    return int32Size(Ucfg.Variable.NAMEREF_FIELD_NUMBER, ref(variable.id()));
+  }
+
+  private int measure(Expression.ClassName className) {
+    return int32Size(Ucfg.ClassName.CLASSNAMEREF_FIELD_NUMBER, ref(className.typeName()));
+  }
+
+  private int measure(LocationInFile location) {
+    if (isDelta()) {
+      return sint32Size(Ucfg.Location.DELTASTARTLINE_FIELD_NUMBER, location.getStartLine() - enclosingLocation.getStartLine())
+        + sint32Size(Ucfg.Location.DELTASTARTLINEOFFSET_FIELD_NUMBER, location.getStartLineOffset() - enclosingLocation.getStartLineOffset())
+        + sint32Size(Ucfg.Location.DELTAENDLINE_FIELD_NUMBER, location.getEndLine() - enclosingLocation.getEndLine())
+        + sint32Size(Ucfg.Location.DELTAENDLINEOFFSET_FIELD_NUMBER, location.getEndLineOffset() - enclosingLocation.getEndLineOffset())
+        + int32Size(Ucfg.Location.DELTAFILEIDREF_FIELD_NUMBER, deltaFileIdRef(location));
+    }
+    return int32Size(Ucfg.Location.STARTLINE_FIELD_NUMBER, location.getStartLine())
+      + int32Size(Ucfg.Location.STARTLINEOFFSET_FIELD_NUMBER, location.getStartLineOffset())
+      + int32Size(Ucfg.Location.ENDLINE_FIELD_NUMBER, location.getEndLine())
+      + int32Size(Ucfg.Location.ENDLINEOFFSET_FIELD_NUMBER, location.getEndLineOffset())
+      + int32Size(Ucfg.Location.FILEIDREF_FIELD_NUMBER, ref(location.getFileId()));
+  }
+
+  private int deltaFileIdRef(LocationInFile location) {
+    return location.getFileId().equals(enclosingLocation.getFileId()) ? 0 : (ref(location.getFileId()) + 1);
+  }
+
+  // Write pass: same traversal as the measure pass
+
+  private void writeMessageTag(int fieldNumber, CodedOutputStream out) throws IOException {
+    out.writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    out.writeUInt32NoTag(sizes[sizeCursor++]);
+  }
+
+  private static void writeLeafTag(int fieldNumber, int size, CodedOutputStream out) throws IOException {
+    out.writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    out.writeUInt32NoTag(size);
+  }
+
+  private static void writeInt32(int fieldNumber, int value, CodedOutputStream out) throws IOException {
+    if (value != 0) {
+      out.writeInt32(fieldNumber, value);
+    }
+  }
+
+  private static void writeSInt32(int fieldNumber, int value, CodedOutputStream out) throws IOException {
+    if (value != 0) {
+      out.writeSInt32(fieldNumber, value);
+    }
+  }
+
+  private static void writeString(int fieldNumber, String value, CodedOutputStream out) throws IOException {
+    if (!value.isEmpty()) {
+      out.writeString(fieldNumber, value);
+    }
+  }
+
+  private void write(UCFG ucfg, CodedOutputStream out) throws IOException {
+    LocationInFile location = ucfg.location();
+    enclosingLocation = null;
+    if (location != null) {
+      write(Ucfg.UCFG.LOCATION_FIELD_NUMBER, location, out);
+    }
+    for (BasicBlock entry : ucfg.entryBlocks()) {
+      out.writeString(Ucfg.UCFG.ENTRIES_FIELD_NUMBER, entry.label().id());
+    }
+    for (BasicBlock basicBlock : ucfg.basicBlocks().values()) {
+      writeMessageTag(Ucfg.UCFG.BASICBLOCKS_FIELD_NUMBER, out);
+      write(basicBlock, location, out);
+    }
+    writeInt32(Ucfg.UCFG.VERSION_FIELD_NUMBER, UCFGtoProtobuf.CURRENT_VERSION, out);
+    for (String string : strings) {
+      out.writeString(Ucfg.UCFG.STRINGS_FIELD_NUMBER, string);
+    }
+    writeInt32(Ucfg.UCFG.METHODIDREF_FIELD_NUMBER, ref(ucfg.methodId()), out);
+    int parameterRefsSize = parameterRefsSize(ucfg);
+    if (parameterRefsSize > 0) {
+      writeLeafTag(Ucfg.UCFG.PARAMETERREFS_FIELD_NUMBER, parameterRefsSize, out);
+      for (Expression.Variable parameter : ucfg.parameters()) {
+        out.writeInt32NoTag(ref(parameter.id()));
+      }
+    }
+    if (deltaLocations) {
+      out.writeBool(Ucfg.UCFG.DELTALOCATIONS_FIELD_NUMBER, true);
+    }
+  }
+
+  private void write(BasicBlock basicBlock, @Nullable LocationInFile ucfgLocation, CodedOutputStream out) throws IOException {
+    writeString(Ucfg.BasicBlock.ID_FIELD_NUMBER, basicBlock.label().id(), out);
+    enclosingLocation = ucfgLocation;
+    LocationInFile location = basicBlock.locationInFile();
+    if (location != null) {
+      write(Ucfg.BasicBlock.LOCATION_FIELD_NUMBER, location, out);
+      enclosingLocation = location;
+    }
+    for (UCFGElement.Instruction instruction : basicBlock.instructions()) {
+      writeMessageTag(Ucfg.BasicBlock.INSTRUCTIONS_FIELD_NUMBER, out);
+      write(instruction, out);
+    }
+    if (basicBlock.terminator().type() == UCFGElement.UCFGElementType.RET) {
+      writeMessageTag(Ucfg.BasicBlock.RET_FIELD_NUMBER, out);
+      write((UCFGElement.Ret) basicBlock.terminator(), out);
+    } else {
+      UCFGElement.Jump jump = (UCFGElement.Jump) basicBlock.terminator();
+      writeLeafTag(Ucfg.BasicBlock.JUMP_FIELD_NUMBER, measure(jump), out);
+      for (Label destination : jump.destinations()) {
+        out.writeString(Ucfg.Jump.DESTINATIONS_FIELD_NUMBER, destination.id());
+      }
+    }
+  }
+
+  private void write(UCFGElement.Instruction instruction, CodedOutputStream out) throws IOException {
+    if (instruction.type() == UCFGElement.UCFGElementType.CALL) {
+      UCFGElement.AssignCall assignCall = (UCFGElement.AssignCall) instruction;
+      writeMessageTag(Ucfg.Instruction.ASSIGNCALL_FIELD_NUMBER, out);
+      writeLocationAndTarget(assignCall.location(), assignCall.getLhs(), out);
+      for (Expression arg : assignCall.getArgExpressions()) {
+        writeMessageTag(Ucfg.AssignCall.ARGS_FIELD_NUMBER, out);
+        write(arg, out);
+      }
+      writeInt32(Ucfg.AssignCall.METHODIDREF_FIELD_NUMBER, ref(assignCall.getMethodId()), out);
+    } else {
+      UCFGElement.NewObject newObject = (UCFGElement.NewObject) instruction;
+      writeMessageTag(Ucfg.Instruction.NEWOBJECT_FIELD_NUMBER, out);
+      writeLocationAndTarget(newObject.location(), newObject.getLhs(), out);
+      writeInt32(Ucfg.NewObject.TYPEREF_FIELD_NUMBER, ref(newObject.instanceType()), out);
+    }
+  }
+
+  private void writeLocationAndTarget(@Nullable LocationInFile location, Expression lhs, CodedOutputStream out) throws IOException {
+    if (location != null) {
+      write(Ucfg.AssignCall.LOCATION_FIELD_NUMBER, location, out);
+    }
+    if (lhs instanceof Expression.Variable) {
+      write(Ucfg.AssignCall.VARIABLE_FIELD_NUMBER, (Expression.Variable) lhs, out);
+    } else {
+      writeMessageTag(Ucfg.AssignCall.FIELDACCESS_FIELD_NUMBER, out);
+      write((Expression.FieldAccess) lhs, out);
+    }
+  }
+
+  private void write(UCFGElement.Ret ret, CodedOutputStream out) throws IOException {
+    if (ret.location() != null) {
+      write(Ucfg.Return.LOCATION_FIELD_NUMBER, ret.location(), out);
+    }
+    writeMessageTag(Ucfg.Return.RETURNEDEXPRESSION_FIELD_NUMBER, out);
+    write(ret.getReturnedExpression(), out);
+  }
+
+  private void write(Expression expression, CodedOutputStream out) throws IOException {
+    if (expression.isConstant()) {
+      String value = ((Expression.Constant) expression).value();
+      writeLeafTag(Ucfg.Expression.CONST_FIELD_NUMBER, stringSize(Ucfg.Constant.VALUE_FIELD_NUMBER, value), out);
+      writeString(Ucfg.Constant.VALUE_FIELD_NUMBER, value, out);
+    } else if (expression == Expression.THIS) {
+      writeLeafTag(Ucfg.Expression.THIS_FIELD_NUMBER, 0, out);
+    } else if (expression instanceof Expression.ClassName) {
+      write(Ucfg.Expression.CLASSNAME_FIELD_NUMBER, (Expression.ClassName) expression, out);
+    } else if (expression instanceof Expression.FieldAccess) {
+      writeMessageTag(Ucfg.Expression.FIELDACCESS_FIELD_NUMBER, out);
+      write((Expression.FieldAccess) expression, out);
+    } else {
+      write(Ucfg.Expression.VAR_FIELD_NUMBER, (Expression.Variable) expression, out);
+    }
+  }
+
+  private void write(Expression.FieldAccess fieldAccess, CodedOutputStream out) throws IOException {
+    Expression object = fieldAccess.object();
+    if (object == Expression.THIS) {
+      writeLeafTag(Ucfg.FieldAccess.THIS_FIELD_NUMBER, 0, out);
+    } else if (object instanceof Expression.Variable) {
+      write(Ucfg.FieldAccess.OBJECT_FIELD_NUMBER, (Expression.Variable) object, out);
+    } else {
+      write(Ucfg.FieldAccess.CLASSNAME_FIELD_NUMBER, (Expression.ClassName) object, out);
+    }
+    write(Ucfg.FieldAccess.FIELD_FIELD_NUMBER, fieldAccess.field(), out);
+  }
+
+  private void write(int fieldNumber, Expression.Variable variable, CodedOutputStream out) throws IOException {
+    writeLeafTag(fieldNumber, measure(variable), out);
+    writeInt32(Ucfg.Variable.NAMEREF_FIELD_NUMBER, ref(variable.id()), out);
+  }
+
+  private void write(int fieldNumber, Expression.ClassName className, CodedOutputStream out) throws IOException {
+    writeLeafTag(fieldNumber, measure(className), out);
+    writeInt32(Ucfg.ClassName.CLASSNAMEREF_FIELD_NUMBER, ref(className.typeName()), out);
+  }
+
+  private void write(int fieldNumber, LocationInFile location, CodedOutputStream out) throws IOException {
+    writeLeafTag(fieldNumber, measure(location), out);
+    if (isDelta()) {
+      writeSInt32(Ucfg.Location.DELTASTARTLINE_FIELD_NUMBER, location.getStartLine() - enclosingLocation.getStartLine(), out);
+      writeSInt32(Ucfg.Location.DELTASTARTLINEOFFSET_FIELD_NUMBER, location.getStartLineOffset() - enclosingLocation.getStartLineOffset(), out);
+      writeSInt32(Ucfg.Location.DELTAENDLINE_FIELD_NUMBER, location.getEndLine() - enclosingLocation.getEndLine(), out);
+      writeSInt32(Ucfg.Location.DELTAENDLINEOFFSET_FIELD_NUMBER, location.getEndLineOffset() - enclosingLocation.getEndLineOffset(), out);
+      writeInt32(Ucfg.Location.DELTAFILEIDREF_FIELD_NUMBER, deltaFileIdRef(location), out);
+    } else {
+      writeInt32(Ucfg.Location.STARTLINE_FIELD_NUMBER, location.getStartLine(), out);
+      writeInt32(Ucfg.Location.STARTLINEOFFSET_FIELD_NUMBER, location.getStartLineOffset(), out);
+      writeInt32(Ucfg.Location.ENDLINE_FIELD_NUMBER, location.getEndLine(), out);
+      writeInt32(Ucfg.Location.ENDLINEOFFSET_FIELD_NUMBER, location.getEndLineOffset(), out);
+      writeInt32(Ucfg.Location.FILEIDREF_FIELD_NUMBER, ref(location.getFileId()), out);
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.CheckForNull;
+import org.sonar.ucfg.protobuf.Ucfg;
+import org.sonar.ucfg.util.Interner;
+import org.sonar.ucfg.util.Interners;
+
+/**
+ * Reads selected fields of a serialized {@code Ucfg.UCFG} message, skipping over the others without decoding them.
+ */
+final class UCFGScanner {
+
+  private UCFGScanner() {
+    // utility class
+  }
+
+  static class Header {
+    private final Interner interner;
+    private int version = 0;
+    private final List<String> strings = new ArrayList<>();
+    private String methodId = "";
+    private int methodIdRef = 0;
+    private Ucfg.Location location = null;
+    private final List<String> parameters = new ArrayList<>();
+    private final List<Integer> parameterRefs = new ArrayList<>();
+    private final List<String> callees = new ArrayList<>();
+    private final List<Integer> calleeRefs = new ArrayList<>();
+
+    private Header(Interner interner) {
+      this.interner = interner;
+    }
+
+    String methodId() {
+      return version >= 2 ? strings.get(methodIdRef) : methodId;
+    }
+
+    /**
+     * Location of a UCFG is never delta-encoded. A null location is absent since version 2, set to the default location in version 1.
+     */
+    @CheckForNull
+    LocationInFile location() {
+      if (location == null || (version < 2 && location.equals(Ucfg.Location.getDefaultInstance()))) {
+        return null;
+      }
+      String fileId = version >= 2 ? strings.get(location.getFileIdRef()) : interner.intern(location.getFileId());
+      return new LocationInFile(fileId, location.getStartLine(), location.getStartLineOffset(), location.getEndLine(), location.getEndLineOffset());
+    }
+
+    List<Expression.Variable> parameters() {
+      List<Expression.Variable> result = new ArrayList<>();
+      if (version >= 2) {
+        parameterRefs.forEach(ref -> result.add(UCFGBuilder.variableWithId(strings.get(ref))));
+      } else {
+        parameters.forEach(id -> result.add(UCFGBuilder.variableWithId(id)));
+      }
+      return result;
+    }
+
+    /**
+     * @return method ids of all the calls, in order of appearance (only filled when scanning callees)
+     */
+    Set<String> callees() {
+      Set<String> result = new LinkedHashSet<>();
+      if (version >= 2) {
+        calleeRefs.forEach(ref -> result.add(strings.get(ref)));
+      } else {
+        result.addAll(callees);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Read header fields of a UCFG (method id, location, parameters), skipping basic blocks. Strings of the header are interned
+   * with the given interner.
+   */
+  static Header scanHeader(CodedInputStream input, Interner interner) throws IOException {
+    return scan(input, false, interner);
+  }
+
+  /**
+   * Read header fields of a UCFG and the method ids of its calls, skipping everything else.
+   */
+  static Header scanHeaderAndCallees(CodedInputStream input) throws IOException {
+    return scan(input, true, Interners.none());
+  }
+
+  private static Header scan(CodedInputStream input, boolean withCallees, Interner interner) throws IOException {
+    Header header = new Header(interner);
+    int tag = input.readTag();
+    while (tag != 0) {
+      switch (WireFormat.getTagFieldNumber(tag)) {
+        case Ucfg.UCFG.METHODID_FIELD_NUMBER:
+          header.methodId = interner.intern(input.readStringRequireUtf8());
+          break;
+        case Ucfg.UCFG.LOCATION_FIELD_NUMBER:
+          header.location = Ucfg.Location.parseFrom(input.readBytes());
+          break;
+        case Ucfg.UCFG.PARAMETERS_FIELD_NUMBER:
+          header.parameters.add(interner.intern(input.readStringRequireUtf8()));
+          break;
+        case Ucfg.UCFG.VERSION_FIELD_NUMBER:
+          header.version = input.readInt32();
+          break;
+        case Ucfg.UCFG.STRINGS_FIELD_NUMBER:
+          header.strings.add(interner.intern(input.readStringRequireUtf8()));
+          break;
+        case Ucfg.UCFG.METHODIDREF_FIELD_NUMBER:
+          header.methodIdRef = input.readInt32();
+          break;
+        case Ucfg.UCFG.PARAMETERREFS_FIELD_NUMBER:
+          readInt32s(input, tag, header.parameterRefs);
+          break;
+        case Ucfg.UCFG.BASICBLOCKS_FIELD_NUMBER:
+          if (withCallees) {
+            scanEmbedded(input, header, UCFGScanner::scanBasicBlockField);
+          } else {
+            input.skipField(tag);
+          }
+          break;
+        default:
+          input.skipField(tag);
+      }
+      tag = input.readTag();
+    }
+    if (header.version > UCFGtoProtobuf.CURRENT_VERSION) {
+      throw new IllegalStateException("Unsupported UCFG version " + header.version);
+    }
+    return header;
+  }
+
+  @FunctionalInterface
+  private interface FieldScanner {
+    void scanField(CodedInputStream input, int tag, Header header) throws IOException;
+  }
+
+  private static void scanEmbedded(CodedInputStream input, Header header, FieldScanner fieldScanner) throws IOException {
+    int limit = input.pushLimit(input.readRawVarint32());
+    int tag = input.readTag();
+    while (tag != 0) {
+      fieldScanner.scanField(input, tag, header);
+      tag = input.readTag();
+    }
+    input.popLimit(limit);
+  }
+
+  private static void scanBasicBlockField(CodedInputStream input, int tag, Header header) throws IOException {
+    if (WireFormat.getTagFieldNumber(tag) == Ucfg.BasicBlock.INSTRUCTIONS_FIELD_NUMBER) {
+      scanEmbedded(input, header, UCFGScanner::scanInstructionField);
+    } else {
+      input.skipField(tag);
+    }
+  }
+
+  private static void scanInstructionField(CodedInputStream input, int tag, Header header) throws IOException {
+    if (WireFormat.getTagFieldNumber(tag) == Ucfg.Instruction.ASSIGNCALL_FIELD_NUMBER) {
+      scanEmbedded(input, header, UCFGScanner::scanAssignCallField);
+    } else {
+      input.skipField(tag);
+    }
+  }
+
+  private static void scanAssignCallField(CodedInputStream input, int tag, Header header) throws IOException {
+    switch (WireFormat.getTagFieldNumber(tag)) {
+      case Ucfg.AssignCall.METHODID_FIELD_NUMBER:
+        header.callees.add(input.readStringRequireUtf8());
+        break;
+      case Ucfg.AssignCall.METHODIDREF_FIELD_NUMBER:
+        header.calleeRefs.add(input.readInt32());
+        break;
+      default:
+        input.skipField(tag);
+    }
+  }
+
+  /**
+   * Repeated scalar fields can be either packed or not.
+   */
+  private static void readInt32s(CodedInputStream input, int tag, List<Integer> values) throws IOException {
+    if (WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+      int limit = input.pushLimit(input.readRawVarint32());
+      while (input.getBytesUntilLimit() > 0) {
+        values.add(input.readInt32());
+      }
+      input.popLimit(limit);
+    } else {
+      values.add(input.readInt32());
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import javax.annotation.CheckForNull;
+
+/**
+ * Spliterator over a range of indexed UCFG sources (files, entries of a container), loading a UCFG only when it is consumed.
+ * Splitting halves the remaining range so that the UCFGs can be loaded in parallel.
+ */
+class UCFGSpliterator implements Spliterator<UCFG> {
+
+  @FunctionalInterface
+  interface Loader {
+    UCFG load(int index) throws IOException;
+  }
+
+  private final Loader loader;
+  private int from;
+  private final int to;
+
+  UCFGSpliterator(Loader loader, int from, int to) {
+    this.loader = loader;
+    this.from = from;
+    this.to = to;
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super UCFG> action) {
+    if (from >= to) {
+      return false;
+    }
+    UCFG ucfg;
+    try {
+      ucfg = loader.load(from);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    from++;
+    action.accept(ucfg);
+    return true;
+  }
+
+  @CheckForNull
+  @Override
+  public Spliterator<UCFG> trySplit() {
+    int mid = (from + to) >>> 1;
+    if (mid <= from) {
+      return null;
+    }
+    Spliterator<UCFG> prefix = new UCFGSpliterator(loader, from, mid);
+    from = mid;
+    return prefix;
+  }
+
+  @Override
+  public long estimateSize() {
+    return (long) to - from;
+  }
+
+  @Override
+  public int characteristics() {
+    return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg;
+
+import java.util.Collections;
+import java.util.Set;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+/**
+ * Facts about a UCFG needed to index a project (for instance to build a call graph), read without deserializing the UCFG.
+ * See {@link UCFGtoProtobuf#scanProtobufFile(java.io.File)}.
+ */
+public class UCFGSummary {
+
+  private final String methodId;
+  private final LocationInFile location;
+  private final Set<String> callees;
+
+  UCFGSummary(String methodId, @Nullable LocationInFile location, Set<String> callees) {
+    this.methodId = methodId;
+    this.location = location;
+    this.callees = Collections.unmodifiableSet(callees);
+  }
+
+  public String methodId() {
+    return methodId;
+  }
+
+  @CheckForNull
+  public LocationInFile location() {
+    return location;
+  }
+
+  /**
+   * @return method ids of the {@link UCFGElement.AssignCall} instructions of the UCFG
+   */
+  public Set<String> callees() {
+    return callees;
+  }
+}
@@ -19,167 +19,593 @@
  */
 package org.sonar.ucfg;
 
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonPrimitive;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
-import java.lang.reflect.Type;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 
+/**
+ * Serializes UCFGs to JSON, see src/test/resources/schema.json, and reads them back.
+ * <p>
+ * UCFGs are written on the fly to the target and read token by token, without building an intermediate JSON tree.
+ * Absent locations and expressions of type {@code this} are omitted from objects and written as {@code null} in arrays,
+ * and HTML characters are escaped.
+ */
 public final class UCFGtoJson {
 
+  private static final String INDENT = "  ";
+
   private UCFGtoJson() {
     // empty constructor
   }
 
+  /**
+   * @return pretty printed JSON of the UCFG
+   */
   public static String toJson(UCFG ucfg) {
-    GsonBuilder gson = new GsonBuilder().setPrettyPrinting();
-    gson.registerTypeAdapter(UCFG.class, new UcfgSerializer());
-    gson.registerTypeAdapter(Label.class, new LabelSerializer());
-    gson.registerTypeAdapter(Expression.Variable.class, new VariableSerializer());
-    gson.registerTypeAdapter(Expression.Constant.class, new ConstantSerializer());
-    gson.registerTypeAdapter(Expression.FieldAccess.class, new FieldAccessSerializer());
-    gson.registerTypeAdapter(Expression.ClassName.class, new ClassNameSerializer());
-    gson.registerTypeAdapter(BasicBlock.class, new BasicBlockSerializer());
-    gson.registerTypeAdapter(UCFGElement.AssignCall.class, new AssignCallSerializer());
-    gson.registerTypeAdapter(UCFGElement.Ret.class, new ReturnSerializer());
-    gson.registerTypeAdapter(UCFGElement.Jump.class, new JumpSerializer());
-    gson.registerTypeAdapter(UCFGElement.NewObject.class, new NewObjectSerializer());
-    gson.registerTypeAdapter(LocationInFile.class, new LocationSerializer());
-
-    return gson.create().toJson(ucfg);
-  }
-
-  private static class UcfgSerializer implements JsonSerializer<UCFG> {
-    @Override
-    public JsonElement serialize(UCFG ucfg, Type type, JsonSerializationContext jsonSerializationContext) {
-      JsonObject jsonObject = new JsonObject();
-      jsonObject.addProperty("ucfgId", ucfg.methodId());
-      jsonObject.add("ucfgLoc", jsonSerializationContext.serialize(ucfg.location()));
-      jsonObject.add("ucfgParams", jsonSerializationContext.serialize(ucfg.parameters().stream().map(Expression.Variable::id).collect(Collectors.toList())));
-      jsonObject.add("ucfgEntries", jsonSerializationContext.serialize(ucfg.entryBlocks().stream().map(BasicBlock::label).collect(Collectors.toSet())));
-      jsonObject.add("ucfgBody", jsonSerializationContext.serialize(ucfg.basicBlocks().values()));
-      return jsonObject;
+    return toString(ucfg, true);
+  }
+
+  /**
+   * @return JSON of the UCFG, without any whitespace
+   */
+  public static String toCompactJson(UCFG ucfg) {
+    return toString(ucfg, false);
+  }
+
+  private static String toString(UCFG ucfg, boolean pretty) {
+    StringWriter writer = new StringWriter();
+    try {
+      toJson(ucfg, writer, pretty);
+    } catch (IOException e) {
+      // no I/O on a StringWriter
+      throw new UncheckedIOException(e);
     }
+    return writer.toString();
   }
 
-  private static class LabelSerializer implements JsonSerializer<Label> {
-    @Override
-    public JsonElement serialize(Label src, Type typeOfSrc, JsonSerializationContext context) {
-      return new JsonPrimitive(src.id());
+  /**
+   * Write the UCFG to the given target, which is not closed.
+   */
+  public static void toJson(UCFG ucfg, Appendable out, boolean pretty) throws IOException {
+    Writer writer = out instanceof Writer ? (Writer) out : new AppendableWriter(out);
+    JsonWriter json = new JsonWriter(writer);
+    if (pretty) {
+      json.setIndent(INDENT);
     }
+    json.setHtmlSafe(true);
+    json.setSerializeNulls(false);
+    writeUcfg(json, ucfg);
+    json.flush();
   }
 
-  private static class VariableSerializer implements JsonSerializer<Expression.Variable> {
-    @Override
-    public JsonElement serialize(Expression.Variable src, Type typeOfSrc, JsonSerializationContext context) {
-      JsonObject jsonObject = new JsonObject();
-      jsonObject.addProperty("tag", "Var");
-      jsonObject.addProperty("varName", src.id());
-      return jsonObject;
+  /**
+   * Write the UCFG encoded in UTF-8 to the given stream, which is not closed.
+   */
+  public static void toJson(UCFG ucfg, OutputStream out, boolean pretty) throws IOException {
+    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    toJson(ucfg, writer, pretty);
+    writer.flush();
+  }
+
+  private static void writeUcfg(JsonWriter out, UCFG ucfg) throws IOException {
+    out.beginObject();
+    out.name("ucfgId").value(ucfg.methodId());
+    writeLocation(out.name("ucfgLoc"), ucfg.location());
+    out.name("ucfgParams").beginArray();
+    for (Expression.Variable parameter : ucfg.parameters()) {
+      out.value(parameter.id());
+    }
+    out.endArray();
+    out.name("ucfgEntries").beginArray();
+    // labels are written in the order of a hash set, as they always have been
+    Set<Label> entries = ucfg.entryBlocks().stream().map(BasicBlock::label).collect(Collectors.toSet());
+    for (Label entry : entries) {
+      out.value(entry.id());
+    }
+    out.endArray();
+    out.name("ucfgBody").beginArray();
+    for (BasicBlock basicBlock : ucfg.basicBlocks().values()) {
+      writeBasicBlock(out, basicBlock);
     }
+    out.endArray();
+    out.endObject();
   }
 
-  private static class FieldAccessSerializer implements JsonSerializer<Expression.FieldAccess> {
-    @Override
-    public JsonElement serialize(Expression.FieldAccess src, Type typeOfSrc, JsonSerializationContext context) {
-      JsonObject jsonObject = new JsonObject();
-      jsonObject.addProperty("tag", "FieldAccess");
-      jsonObject.add("fieldAccessObject", context.serialize(src.object()));
-      jsonObject.add("fieldAccessField", context.serialize(src.field()));
-      return jsonObject;
+  private static void writeBasicBlock(JsonWriter out, BasicBlock basicBlock) throws IOException {
+    out.beginObject();
+    out.name("bbId").value(basicBlock.label().id());
+    writeLocation(out.name("bbLoc"), basicBlock.locationInFile());
+    out.name("bbInstr").beginArray();
+    for (UCFGElement.Instruction instruction : basicBlock.instructions()) {
+      if (instruction.type() == UCFGElement.UCFGElementType.CALL) {
+        writeAssignCall(out, (UCFGElement.AssignCall) instruction);
+      } else {
+        writeNewObject(out, (UCFGElement.NewObject) instruction);
+      }
+    }
+    out.endArray();
+    out.name("bbTerm");
+    if (basicBlock.terminator().type() == UCFGElement.UCFGElementType.RET) {
+      writeReturn(out, (UCFGElement.Ret) basicBlock.terminator());
+    } else {
+      writeJump(out, (UCFGElement.Jump) basicBlock.terminator());
     }
+    out.endObject();
   }
 
-  private static class ClassNameSerializer implements JsonSerializer<Expression.ClassName> {
-    @Override
-    public JsonElement serialize(Expression.ClassName src, Type typeOfSrc, JsonSerializationContext context) {
-      JsonObject jsonObject = new JsonObject();
-      jsonObject.addProperty("tag", "ClassName");
-      jsonObject.addProperty("classNameType", src.typeName());
-      return jsonObject;
+  private static void writeAssignCall(JsonWriter out, UCFGElement.AssignCall assignCall) throws IOException {
+    out.beginObject();
+    writeLocation(out.name("instrLoc"), assignCall.location());
+    writeExpression(out.name("instrLhs"), assignCall.getLhs());
+    out.name("instrMeth").value(assignCall.getMethodId());
+    out.name("instrArgs").beginArray();
+    for (Expression arg : assignCall.getArgExpressions()) {
+      writeExpression(out, arg);
     }
+    out.endArray();
+    out.endObject();
   }
 
-  private static class ConstantSerializer implements JsonSerializer<Expression.Constant> {
-    @Override
-    public JsonElement serialize(Expression.Constant src, Type typeOfSrc, JsonSerializationContext context) {
-      JsonObject jsonObject = new JsonObject();
-      jsonObject.addProperty("tag", "Const");
-      jsonObject.addProperty("constValue", src.toString());
-      return jsonObject;
+  private static void writeNewObject(JsonWriter out, UCFGElement.NewObject newObject) throws IOException {
+    out.beginObject();
+    out.name("tag").value("NewObject");
+    writeLocation(out.name("newObjectLoc"), newObject.location());
+    writeExpression(out.name("newObjectLhs"), newObject.getLhs());
+    out.name("newObjectType").value(newObject.instanceType());
+    out.endObject();
+  }
+
+  private static void writeReturn(JsonWriter out, UCFGElement.Ret ret) throws IOException {
+    out.beginObject();
+    out.name("tag").value("Ret");
+    writeLocation(out.name("retLoc"), ret.location());
+    writeExpression(out.name("retExpr"), ret.getReturnedExpression());
+    out.endObject();
+  }
+
+  private static void writeJump(JsonWriter out, UCFGElement.Jump jump) throws IOException {
+    out.beginObject();
+    out.name("tag").value("Jump");
+    out.name("jumpDest").beginArray();
+    for (Label destination : jump.destinations()) {
+      out.value(destination.id());
     }
+    out.endArray();
+    out.endObject();
   }
 
-  private static class BasicBlockSerializer implements JsonSerializer<BasicBlock> {
-    @Override
-    public JsonElement serialize(BasicBlock src, Type typeOfSrc, JsonSerializationContext context) {
-      JsonObject jsonObject = new JsonObject();
-      jsonObject.add("bbId", context.serialize(src.label()));
-      jsonObject.add("bbLoc", context.serialize(src.locationInFile()));
-      jsonObject.add("bbInstr", context.serialize(src.instructions()));
-      jsonObject.add("bbTerm", context.serialize(src.terminator()));
-      return jsonObject;
+  private static void writeExpression(JsonWriter out, Expression expression) throws IOException {
+    if (expression == Expression.THIS) {
+      out.nullValue();
+    } else if (expression.isConstant()) {
+      out.beginObject();
+      out.name("tag").value("Const");
+      out.name("constValue").value(expression.toString());
+      out.endObject();
+    } else if (expression instanceof Expression.ClassName) {
+      out.beginObject();
+      out.name("tag").value("ClassName");
+      out.name("classNameType").value(((Expression.ClassName) expression).typeName());
+      out.endObject();
+    } else if (expression instanceof Expression.FieldAccess) {
+      Expression.FieldAccess fieldAccess = (Expression.FieldAccess) expression;
+      out.beginObject();
+      out.name("tag").value("FieldAccess");
+      writeExpression(out.name("fieldAccessObject"), fieldAccess.object());
+      writeExpression(out.name("fieldAccessField"), fieldAccess.field());
+      out.endObject();
+    } else {
+      out.beginObject();
+      out.name("tag").value("Var");
+      out.name("varName").value(((Expression.Variable) expression).id());
+      out.endObject();
     }
   }
 
-  private static class AssignCallSerializer implements JsonSerializer<UCFGElement.AssignCall> {
-    @Override
-    public JsonElement serialize(UCFGElement.AssignCall src, Type typeOfSrc, JsonSerializationContext context) {
-      JsonObject jsonObject = new JsonObject();
-      jsonObject.add("instrLoc", context.serialize(src.location()));
-      jsonObject.add("instrLhs", context.serialize(src.getLhs()));
-      jsonObject.add("instrMeth", context.serialize(src.getMethodId()));
-      jsonObject.add("instrArgs", context.serialize(src.getArgExpressions()));
-      return jsonObject;
+  private static void writeLocation(JsonWriter out, @Nullable LocationInFile location) throws IOException {
+    if (location == null) {
+      out.nullValue();
+      return;
     }
+    out.beginObject();
+    out.name("locFileId").value(location.getFileId());
+    out.name("locStartLine").value(location.getStartLine());
+    out.name("locStartLineOffset").value(location.getStartLineOffset());
+    out.name("locEndLine").value(location.getEndLine());
+    out.name("locEndLineOffset").value(location.getEndLineOffset());
+    out.endObject();
   }
 
-  private static class NewObjectSerializer implements JsonSerializer<UCFGElement.NewObject> {
-    @Override
-    public JsonElement serialize(UCFGElement.NewObject src, Type typeOfSrc, JsonSerializationContext context) {
-      JsonObject jsonObject = new JsonObject();
-      jsonObject.addProperty("tag", "NewObject");
-      jsonObject.add("newObjectLoc", context.serialize(src.location()));
-      jsonObject.add("newObjectLhs", context.serialize(src.getLhs()));
-      jsonObject.addProperty("newObjectType", src.instanceType());
-      return jsonObject;
+  public static UCFG fromJson(String json) {
+    try {
+      return fromJson(new StringReader(json));
+    } catch (IOException e) {
+      throw new IllegalStateException("An error occured while deserializing UCFG from JSON", e);
     }
   }
 
-  private static class LocationSerializer implements JsonSerializer<LocationInFile> {
-    @Override
-    public JsonElement serialize(LocationInFile src, Type typeOfSrc, JsonSerializationContext context) {
-      JsonObject jsonObject = new JsonObject();
-      jsonObject.addProperty("locFileId", src.getFileId());
-      jsonObject.addProperty("locStartLine", src.getStartLine());
-      jsonObject.addProperty("locStartLineOffset", src.getStartLineOffset());
-      jsonObject.addProperty("locEndLine", src.getEndLine());
-      jsonObject.addProperty("locEndLineOffset", src.getEndLineOffset());
-      return jsonObject;
+  /**
+   * Read a UCFG written by {@link #toJson(UCFG, Appendable, boolean)}. Members of JSON objects can come in any order and unknown
+   * members are ignored.
+   *
+   * @throws IOException when the JSON cannot be read or is malformed
+   * @throws IllegalStateException when the JSON does not describe a UCFG
+   */
+  public static UCFG fromJson(Reader reader) throws IOException {
+    JsonReader json = new JsonReader(reader);
+    try {
+      return readUcfg(json);
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      throw new IllegalStateException("An error occured while deserializing UCFG from JSON at " + json.getPath(), e);
     }
   }
 
-  private static class ReturnSerializer implements JsonSerializer<UCFGElement.Ret> {
-    @Override
-    public JsonElement serialize(UCFGElement.Ret src, Type typeOfSrc, JsonSerializationContext context) {
-      JsonObject jsonObject = new JsonObject();
-      jsonObject.addProperty("tag", "Ret");
-      jsonObject.add("retLoc", context.serialize(src.location()));
-      jsonObject.add("retExpr", context.serialize(src.getReturnedExpression()));
-      return jsonObject;
+  private static UCFG readUcfg(JsonReader in) throws IOException {
+    String methodId = null;
+    LocationInFile location = null;
+    List<Expression.Variable> parameters = new ArrayList<>();
+    Set<String> entries = new HashSet<>();
+    List<UCFGBuilder.BlockBuilder> blocks = new ArrayList<>();
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case "ucfgId":
+          methodId = in.nextString();
+          break;
+        case "ucfgLoc":
+          location = readLocation(in);
+          break;
+        case "ucfgParams":
+          in.beginArray();
+          while (in.hasNext()) {
+            parameters.add(UCFGBuilder.variableWithId(in.nextString()));
+          }
+          in.endArray();
+          break;
+        case "ucfgEntries":
+          readStrings(in, entries);
+          break;
+        case "ucfgBody":
+          in.beginArray();
+          while (in.hasNext()) {
+            blocks.add(readBasicBlock(in));
+          }
+          in.endArray();
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+
+    UCFGBuilder builder = UCFGBuilder.createUCFGForMethod(required(methodId, "ucfgId")).at(location);
+    parameters.forEach(builder::addMethodParam);
+    for (UCFGBuilder.BlockBuilder block : blocks) {
+      if (entries.contains(block.label().id())) {
+        builder.addStartingBlock(block);
+      } else {
+        builder.addBasicBlock(block);
+      }
+    }
+    return builder.build();
+  }
+
+  private static UCFGBuilder.BlockBuilder readBasicBlock(JsonReader in) throws IOException {
+    String id = null;
+    LocationInFile location = null;
+    List<UCFGElement.Instruction> instructions = new ArrayList<>();
+    UCFGElement.Terminator terminator = null;
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case "bbId":
+          id = in.nextString();
+          break;
+        case "bbLoc":
+          location = readLocation(in);
+          break;
+        case "bbInstr":
+          in.beginArray();
+          while (in.hasNext()) {
+            instructions.add(readInstruction(in));
+          }
+          in.endArray();
+          break;
+        case "bbTerm":
+          terminator = readTerminator(in);
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+    UCFGBuilder.BlockBuilder block = UCFGBuilder.newBasicBlock(required(id, "bbId"), location);
+    instructions.forEach(block::instruction);
+    return block.terminator(required(terminator, "bbTerm"));
+  }
+
+  /**
+   * Instructions without tag are calls.
+   */
+  private static UCFGElement.Instruction readInstruction(JsonReader in) throws IOException {
+    String tag = null;
+    LocationInFile location = null;
+    Expression lhs = null;
+    String lhsMember = "instrLhs";
+    String methodId = null;
+    List<Expression> args = new ArrayList<>();
+    String type = null;
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case "tag":
+          tag = in.nextString();
+          break;
+        case "instrLoc":
+        case "newObjectLoc":
+          location = readLocation(in);
+          break;
+        case "instrLhs":
+          lhs = readExpression(in);
+          break;
+        case "newObjectLhs":
+          lhs = readExpression(in);
+          lhsMember = "newObjectLhs";
+          break;
+        case "instrMeth":
+          methodId = in.nextString();
+          break;
+        case "instrArgs":
+          in.beginArray();
+          while (in.hasNext()) {
+            args.add(readExpression(in));
+          }
+          in.endArray();
+          break;
+        case "newObjectType":
+          type = in.nextString();
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+    // calls are written without tag
+    if (tag != null && !"AssignCall".equals(tag) && !"NewObject".equals(tag)) {
+      throw new IllegalStateException("Unknown instruction: " + tag);
     }
+    if ("NewObject".equals(tag)) {
+      lhsMember = "newObjectLhs";
+    }
+    required(lhs, lhsMember);
+    if (!(lhs instanceof Expression.FieldAccess) && !(lhs instanceof Expression.Variable)) {
+      throw new IllegalStateException("Expected a variable or a field access as " + lhsMember + " but was: " + lhs);
+    }
+    if ("NewObject".equals(tag)) {
+      required(type, "newObjectType");
+      if (lhs instanceof Expression.FieldAccess) {
+        return new UCFGElement.NewObject(location, (Expression.FieldAccess) lhs, type);
+      }
+      return new UCFGElement.NewObject(location, (Expression.Variable) lhs, type);
+    }
+    required(methodId, "instrMeth");
+    if (lhs instanceof Expression.FieldAccess) {
+      return new UCFGElement.AssignCall(location, (Expression.FieldAccess) lhs, methodId, args);
+    }
+    return new UCFGElement.AssignCall(location, (Expression.Variable) lhs, methodId, args);
   }
 
-  private static class JumpSerializer implements JsonSerializer<UCFGElement.Jump> {
+  private static UCFGElement.Terminator readTerminator(JsonReader in) throws IOException {
+    String tag = null;
+    LocationInFile location = null;
+    Expression returned = Expression.THIS;
+    List<Label> destinations = new ArrayList<>();
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case "tag":
+          tag = in.nextString();
+          break;
+        case "retLoc":
+          location = readLocation(in);
+          break;
+        case "retExpr":
+          returned = readExpression(in);
+          break;
+        case "jumpDest":
+          in.beginArray();
+          while (in.hasNext()) {
+            destinations.add(UCFGBuilder.createLabel(in.nextString()));
+          }
+          in.endArray();
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+    if ("Ret".equals(tag)) {
+      return new UCFGElement.Ret(location, returned);
+    }
+    if ("Jump".equals(tag)) {
+      return new UCFGElement.Jump(destinations);
+    }
+    throw new IllegalStateException("Unknown terminator: " + tag);
+  }
+
+  /**
+   * {@code null} stands for {@link Expression#THIS}.
+   */
+  private static Expression readExpression(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return Expression.THIS;
+    }
+    String tag = null;
+    String name = null;
+    Expression object = Expression.THIS;
+    Expression field = null;
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case "tag":
+          tag = in.nextString();
+          break;
+        case "varName":
+        case "constValue":
+        case "classNameType":
+          name = in.nextString();
+          break;
+        case "fieldAccessObject":
+          object = readExpression(in);
+          break;
+        case "fieldAccessField":
+          field = readExpression(in);
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+    return expression(required(tag, "tag"), name, object, field);
+  }
+
+  private static Expression expression(String tag, @Nullable String name, Expression object, @Nullable Expression field) {
+    switch (tag) {
+      case "Var":
+        return UCFGBuilder.variableWithId(required(name, "varName"));
+      case "Const":
+        return UCFGBuilder.constant(unquote(required(name, "constValue")));
+      case "ClassName":
+        return UCFGBuilder.clazz(required(name, "classNameType"));
+      case "FieldAccess":
+        if (!(required(field, "fieldAccessField") instanceof Expression.Variable)) {
+          throw new IllegalStateException("Expected a variable as fieldAccessField but was: " + field);
+        }
+        Expression.Variable fieldVariable = (Expression.Variable) field;
+        if (object == Expression.THIS) {
+          return UCFGBuilder.fieldAccess(fieldVariable);
+        } else if (object instanceof Expression.ClassName) {
+          return UCFGBuilder.fieldAccess((Expression.ClassName) object, fieldVariable);
+        } else if (object instanceof Expression.Variable) {
+          return UCFGBuilder.fieldAccess((Expression.Variable) object, fieldVariable);
+        }
+        throw new IllegalStateException("Expected a variable or a class name as fieldAccessObject but was: " + object);
+      default:
+        throw new IllegalStateException("Unknown expression: " + tag);
+    }
+  }
+
+  private static <T> T required(@Nullable T value, String member) {
+    if (value == null) {
+      throw new IllegalStateException("Missing member " + member);
+    }
+    return value;
+  }
+
+  /**
+   * Constant values are written with the quotes of {@link Expression.Constant#toString()}.
+   */
+  private static String unquote(String constValue) {
+    if (constValue.length() >= 2 && constValue.startsWith("\"") && constValue.endsWith("\"")) {
+      return constValue.substring(1, constValue.length() - 1);
+    }
+    return constValue;
+  }
+
+  @CheckForNull
+  private static LocationInFile readLocation(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    String fileId = null;
+    int startLine = 0;
+    int startLineOffset = 0;
+    int endLine = 0;
+    int endLineOffset = 0;
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case "locFileId":
+          fileId = in.nextString();
+          break;
+        case "locStartLine":
+          startLine = in.nextInt();
+          break;
+        case "locStartLineOffset":
+          startLineOffset = in.nextInt();
+          break;
+        case "locEndLine":
+          endLine = in.nextInt();
+          break;
+        case "locEndLineOffset":
+          endLineOffset = in.nextInt();
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+    return new LocationInFile(required(fileId, "locFileId"), startLine, startLineOffset, endLine, endLineOffset);
+  }
+
+  private static void readStrings(JsonReader in, Collection<String> strings) throws IOException {
+    in.beginArray();
+    while (in.hasNext()) {
+      strings.add(in.nextString());
+    }
+    in.endArray();
+  }
+
+  private static class AppendableWriter extends Writer {
+    private final Appendable out;
+
+    private AppendableWriter(Appendable out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+      out.append((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+      out.append(CharBuffer.wrap(chars, offset, length));
+    }
+
+    @Override
+    public void write(String str, int offset, int length) throws IOException {
+      out.append(str, offset, offset + length);
+    }
+
+    @Override
+    public void flush() {
+      // nothing buffered
+    }
+
     @Override
-    public JsonElement serialize(UCFGElement.Jump src, Type typeOfSrc, JsonSerializationContext context) {
-      JsonObject jsonObject = new JsonObject();
-      jsonObject.addProperty("tag", "Jump");
-      jsonObject.add("jumpDest", context.serialize(src.destinations()));
-      return jsonObject;
+    public void close() {
+      // target is not closed
     }
   }
 }
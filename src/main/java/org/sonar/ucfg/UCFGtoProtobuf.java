@@ -19,160 +19,289 @@
  */
 package org.sonar.ucfg;
 
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 import org.sonar.ucfg.protobuf.Ucfg;
+import org.sonar.ucfg.util.Interner;
+import org.sonar.ucfg.util.Interners;
 
 public final class UCFGtoProtobuf {
 
+  /**
+   * Version of the protobuf layout written by this class, see ucfg.proto. All versions up to this one can be read.
+   */
+  static final int CURRENT_VERSION = 2;
+
   private UCFGtoProtobuf() {
     // empty constructor
   }
 
   public static void toProtobufFile(UCFG ucfg, String filename) throws IOException {
-    Ucfg.UCFG protobufUCFG = Ucfg.UCFG.newBuilder()
-      .setMethodId(ucfg.methodId())
-      .setLocation(toProtobuf(ucfg.location()))
-      .addAllParameters(ucfg.parameters().stream().map(Expression.Variable::id).collect(Collectors.toList()))
-      .addAllEntries(ucfg.entryBlocks().stream().map(BasicBlock::label).map(Label::id).collect(Collectors.toList()))
-      .addAllBasicBlocks(ucfg.basicBlocks().values().stream().map(UCFGtoProtobuf::toProtobuf).collect(Collectors.toList()))
-      .build();
+    toProtobufFile(ucfg, filename, false);
+  }
+
+  /**
+   * @param deltaLocations encode locations of basic blocks and instructions relatively to their enclosing location,
+   *                       which makes files smaller when instructions are on nearby lines of the same file.
+   */
+  public static void toProtobufFile(UCFG ucfg, String filename, boolean deltaLocations) throws IOException {
     try (FileOutputStream fos = new FileOutputStream(filename)) {
-      protobufUCFG.writeTo(fos);
+      UCFGProtobufWriter.perThread().write(ucfg, deltaLocations, fos);
+    }
+  }
+
+  /**
+   * Write all the given UCFGs in a single container file, see {@link UCFGContainerWriter}.
+   */
+  public static void toProtobufContainer(Collection<UCFG> ucfgs, String filename) throws IOException {
+    try (UCFGContainerWriter writer = UCFGContainerWriter.create(filename)) {
+      writer.writeAll(ucfgs);
     }
+  }
+
+  public static UCFG fromProtobufFile(File protobufFile) throws IOException {
+    return fromProtobufFile(protobufFile, Interners.none());
+  }
+
+  /**
+   * Deserialize a UCFG, sharing structurally equal expressions and locations through the given factory.
+   */
+  public static UCFG fromProtobufFile(File protobufFile, @Nullable HashConsingFactory factory) throws IOException {
+    return fromProtobufFile(protobufFile, Interners.none(), factory);
+  }
 
+  /**
+   * Deserialize a UCFG, interning its method ids, labels, variable names, type names and file ids with the given interner,
+   * for instance an {@link Interners#arena()} scoped to the UCFGs of an analysis.
+   * Every reader of this class accepts an interner the same way.
+   */
+  public static UCFG fromProtobufFile(File protobufFile, Interner interner) throws IOException {
+    return fromProtobufFile(protobufFile, interner, null);
   }
 
-  private static Ucfg.BasicBlock toProtobuf(BasicBlock basicBlock) {
-    Ucfg.BasicBlock.Builder builder = Ucfg.BasicBlock.newBuilder()
-      .setId(basicBlock.label().id())
-      .setLocation(toProtobuf(basicBlock.locationInFile()))
-      .addAllInstructions(basicBlock.instructions().stream().map(i -> {
-          if (i.type() == UCFGElement.UCFGElementType.CALL) {
-            return toProtobuf((UCFGElement.AssignCall) i);
-          }
-          return toProtobuf((UCFGElement.NewObject) i);
-        }).collect(Collectors.toList()));
-
-    if (basicBlock.terminator().type() == UCFGElement.UCFGElementType.RET) {
-      UCFGElement.Ret ret = (UCFGElement.Ret) basicBlock.terminator();
-      builder.setRet(Ucfg.Return.newBuilder().setLocation(toProtobuf(ret.location())).setReturnedExpression(toProtobuf(ret.getReturnedExpression())));
-    } else {
-      Ucfg.Jump.Builder jump = Ucfg.Jump.newBuilder();
-      UCFGElement.Jump terminator = (UCFGElement.Jump) basicBlock.terminator();
-      jump.addAllDestinations(terminator.destinations().stream().map(Label::id).collect(Collectors.toList()));
-      builder.setJump(jump);
+  /**
+   * Deserialize a UCFG, interning symbols with the given interner, then sharing expressions and locations through the factory.
+   */
+  public static UCFG fromProtobufFile(File protobufFile, Interner interner, @Nullable HashConsingFactory factory) throws IOException {
+    try (FileInputStream fis = new FileInputStream(protobufFile)) {
+      return deserializeUcfg(fis, interner, factory);
     }
-    return builder.build();
   }
 
-  private static Ucfg.Instruction toProtobuf(UCFGElement.AssignCall assignCall) {
-    Ucfg.AssignCall.Builder builder = Ucfg.AssignCall.newBuilder()
-      .setLocation(toProtobuf(assignCall.location()))
-      .setMethodId(assignCall.getMethodId())
-      .addAllArgs(assignCall.getArgExpressions().stream().map(UCFGtoProtobuf::toProtobuf).collect(Collectors.toList()));
-    Expression lhs = assignCall.getLhs();
-
-    if (lhs instanceof Expression.Variable) {
-      builder.setVariable(toProtobuf((Expression.Variable) lhs));
-    } else {
-      builder.setFieldAccess(toProtobuf((Expression.FieldAccess) lhs));
+  public static UCFG fromProtobufFileMapped(File protobufFile) throws IOException {
+    return fromProtobufFileMapped(protobufFile, Interners.none());
+  }
+
+  /**
+   * Parse the UCFG directly from the file mapped in memory, instead of reading it through a file stream.
+   */
+  public static UCFG fromProtobufFileMapped(File protobufFile, Interner interner) throws IOException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(protobufFile.toPath(), StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    Ucfg.UCFG ucfg;
+    try {
+      ucfg = Ucfg.UCFG.parseFrom(new ByteBufferInputStream(buffer));
+    } catch (Exception e) {
+      throw new IllegalStateException("An error occured while deserializing UCFG for method ", e);
     }
-    return Ucfg.Instruction.newBuilder().setAssigncall(builder.build()).build();
+    return fromProtobuf(ucfg, interner, null);
   }
 
-  private static Ucfg.Instruction toProtobuf(UCFGElement.NewObject newObject) {
-    Ucfg.NewObject.Builder builder = Ucfg.NewObject.newBuilder()
-      .setLocation(toProtobuf(newObject.location()))
-      .setType(newObject.instanceType());
+  public static UCFG fromProtobufFileLazily(File protobufFile) throws IOException {
+    return fromProtobufFileLazily(protobufFile, Interners.none());
+  }
+
+  /**
+   * Only decode method id, location and parameters of the UCFG: basic blocks are decoded from the bytes of the file
+   * when first accessed through {@link UCFG#basicBlocks()} or {@link UCFG#entryBlocks()}.
+   */
+  public static UCFG fromProtobufFileLazily(File protobufFile, Interner interner) throws IOException {
+    return lazily(Files.readAllBytes(protobufFile.toPath()), interner);
+  }
+
+  static UCFG lazily(byte[] bytes, Interner interner) {
+    UCFGScanner.Header header;
+    try {
+      header = UCFGScanner.scanHeader(CodedInputStream.newInstance(bytes), interner);
+    } catch (Exception e) {
+      throw new IllegalStateException("An error occured while deserializing UCFG for method ", e);
+    }
+    return new UCFG(header.methodId(), header.parameters(), header.location(), () -> {
+      try {
+        return fromProtobuf(Ucfg.UCFG.parseFrom(bytes), interner, null);
+      } catch (InvalidProtocolBufferException e) {
+        throw new IllegalStateException("An error occured while deserializing UCFG for method " + header.methodId(), e);
+      }
+    });
+  }
 
-    Expression lhs = newObject.getLhs();
-    if (lhs instanceof Expression.Variable) {
-      builder.setVariable(toProtobuf((Expression.Variable) lhs));
-    } else {
-      builder.setFieldAccess(toProtobuf((Expression.FieldAccess) lhs));
+  /**
+   * Read method id, location and callees of a UCFG, skipping over everything else without building any UCFG element.
+   */
+  public static UCFGSummary scanProtobufFile(File protobufFile) throws IOException {
+    try (FileInputStream fis = new FileInputStream(protobufFile)) {
+      return scan(CodedInputStream.newInstance(fis));
     }
-    return Ucfg.Instruction.newBuilder().setNewObject(builder.build()).build();
   }
 
-  private static Ucfg.Expression toProtobuf(Expression expression) {
-    Ucfg.Expression.Builder builder = Ucfg.Expression.newBuilder();
-    if (expression.isConstant()) {
-      builder.setConst(toProtobuf((Expression.Constant) expression));
-    } else if(expression == Expression.THIS) {
-      builder.setThis(toProtobufThis());
-    } else if (expression instanceof Expression.ClassName) {
-      builder.setClassname(toProtobuf((Expression.ClassName) expression));
-    } else if (expression instanceof Expression.FieldAccess) {
-      builder.setFieldAccess(toProtobuf((Expression.FieldAccess) expression));
-    } else {
-      builder.setVar(toProtobuf((Expression.Variable) expression));
+  static UCFGSummary scan(CodedInputStream input) {
+    try {
+      UCFGScanner.Header header = UCFGScanner.scanHeaderAndCallees(input);
+      return new UCFGSummary(header.methodId(), header.location(), header.callees());
+    } catch (Exception e) {
+      throw new IllegalStateException("An error occured while scanning UCFG", e);
     }
-    return builder.build();
   }
 
-  private static Ucfg.Constant toProtobuf(Expression.Constant constant) {
-    return Ucfg.Constant.newBuilder().setValue(constant.value()).build();
+  /**
+   * Read all the UCFGs of a container file written by {@link #toProtobufContainer(Collection, String)}, see {@link UCFGContainerReader}.
+   */
+  public static List<UCFG> fromProtobufContainer(File containerFile) throws IOException {
+    return fromProtobufContainer(containerFile, Interners.none());
   }
 
-  private static Ucfg.Variable toProtobuf(Expression.Variable variable) {
-    return Ucfg.Variable.newBuilder().setName(variable.id()).build();
+  public static List<UCFG> fromProtobufContainer(File containerFile, Interner interner) throws IOException {
+    try (UCFGContainerReader reader = UCFGContainerReader.open(containerFile, interner)) {
+      return reader.readAll();
+    }
   }
 
-  private static Ucfg.ClassName toProtobuf(Expression.ClassName className) {
-    return Ucfg.ClassName.newBuilder().setClassname(className.typeName()).build();
+  /**
+   * Lazily read the given UCFG files: a file is only read when its UCFG is consumed, so memory stays bounded
+   * whatever the number of files and the stream can be short-circuited or consumed in parallel.
+   * An {@link java.io.UncheckedIOException} is thrown when a file cannot be read.
+   */
+  public static Stream<UCFG> streamProtobufFiles(List<File> protobufFiles) {
+    return streamProtobufFiles(protobufFiles, Interners.none());
   }
 
-  private static Ucfg.This toProtobufThis() {
-    return Ucfg.This.newBuilder().build();
+  public static Stream<UCFG> streamProtobufFiles(List<File> protobufFiles, Interner interner) {
+    List<File> files = new ArrayList<>(protobufFiles);
+    return StreamSupport.stream(new UCFGSpliterator(i -> fromProtobufFile(files.get(i), interner), 0, files.size()), false);
   }
 
-  private static Ucfg.FieldAccess toProtobuf(Expression.FieldAccess fieldAccess) {
-    Ucfg.FieldAccess.Builder fieldAccessBuilder = Ucfg.FieldAccess.newBuilder();
-    Expression object = fieldAccess.object();
-    if (object == Expression.THIS) {
-      fieldAccessBuilder.setThis(toProtobufThis());
-    } else if (object instanceof Expression.Variable) {
-      fieldAccessBuilder.setObject(toProtobuf((Expression.Variable) object));
-    } else {
-      fieldAccessBuilder.setClassname(toProtobuf((Expression.ClassName) object));
-    }
-    fieldAccessBuilder.setField(toProtobuf(fieldAccess.field()));
-    return fieldAccessBuilder.build();
+  public static Stream<UCFG> streamProtobufDirectory(File directory) throws IOException {
+    return streamProtobufDirectory(directory, Interners.none());
   }
 
-  private static Ucfg.Location toProtobuf(@Nullable LocationInFile locationInFile) {
-    if (locationInFile == null) {
-      return Ucfg.Location.getDefaultInstance();
+  /**
+   * Lazily read all the UCFG files of a directory (not recursively), in file name order.
+   */
+  public static Stream<UCFG> streamProtobufDirectory(File directory, Interner interner) throws IOException {
+    List<File> files;
+    try (Stream<Path> paths = Files.list(directory.toPath())) {
+      files = paths.filter(Files::isRegularFile).sorted().map(Path::toFile).collect(Collectors.toList());
     }
-    return Ucfg.Location.newBuilder()
-      .setFileId(locationInFile.getFileId())
-      .setStartLine(locationInFile.getStartLine())
-      .setStartLineOffset(locationInFile.getStartLineOffset())
-      .setEndLine(locationInFile.getEndLine())
-      .setEndLineOffset(locationInFile.getEndLineOffset())
-      .build();
+    return streamProtobufFiles(files, interner);
   }
-  public static UCFG fromProtobufFile(File protobufFile) throws IOException {
-    try (FileInputStream fis = new FileInputStream(protobufFile)) {
-      return deserializeUcfg(fis);
+
+  public static Stream<UCFG> streamProtobufContainer(File containerFile) throws IOException {
+    return streamProtobufContainer(containerFile, Interners.none());
+  }
+
+  /**
+   * Lazily read the UCFGs of a container file, see {@link UCFGContainerReader#stream()}.
+   * The returned stream should be closed to release the container file.
+   */
+  public static Stream<UCFG> streamProtobufContainer(File containerFile, Interner interner) throws IOException {
+    UCFGContainerReader reader = UCFGContainerReader.open(containerFile, interner);
+    return reader.stream().onClose(() -> {
+      try {
+        reader.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
+  private static UCFG deserializeUcfg(FileInputStream fis, Interner interner, @Nullable HashConsingFactory factory) {
+    Ucfg.UCFG ucfg;
+    try {
+      ucfg = Ucfg.UCFG.parseFrom(fis);
+    } catch (Exception e) {
+      throw new IllegalStateException("An error occured while deserializing UCFG for method ", e);
     }
+    return fromProtobuf(ucfg, interner, factory);
+  }
+
+  static UCFG fromProtobuf(Ucfg.UCFG ucfg) {
+    return fromProtobuf(ucfg, Interners.none(), null);
   }
 
-  private static UCFG deserializeUcfg(FileInputStream fis) throws IOException {
+  static UCFG fromProtobuf(Ucfg.UCFG ucfg, Interner interner, @Nullable HashConsingFactory factory) {
     String methodId = "";
     try {
-      Ucfg.UCFG ucfg = Ucfg.UCFG.parseFrom(fis);
-      methodId = ucfg.getMethodId();
-      UCFGBuilder builder = UCFGBuilder.createUCFGForMethod(methodId).at(fromProtobuf(ucfg.getLocation()));
-      ucfg.getParametersList().forEach(pId -> builder.addMethodParam(UCFGBuilder.variableWithId(pId)));
+      if (ucfg.getVersion() > CURRENT_VERSION) {
+        throw new IllegalStateException("Unsupported UCFG version " + ucfg.getVersion());
+      }
+      methodId = methodId(ucfg);
+      return new Decoder(interner, factory).fromProtobuf(ucfg);
+    } catch (Exception e) {
+      throw new IllegalStateException("An error occured while deserializing UCFG for method "+methodId, e);
+    }
+  }
+
+  static String methodId(Ucfg.UCFG ucfg) {
+    if (ucfg.getVersion() >= 2) {
+      return ucfg.getStrings(ucfg.getMethodIdRef());
+    }
+    return ucfg.getMethodId();
+  }
+
+  /**
+   * Converts protobuf messages to UCFG elements, interning symbols with the given interner, and through the
+   * {@link HashConsingFactory} when one is provided.
+   */
+  private static class Decoder {
+
+    private final Interner interner;
+    @Nullable
+    private final HashConsingFactory factory;
+    private boolean stringTable;
+    private List<String> strings;
+    private boolean deltaLocations;
+    // location the next decoded location is relative to, when deltaLocations is set
+    private LocationInFile enclosingLocation = null;
+
+    Decoder(Interner interner, @Nullable HashConsingFactory factory) {
+      this.interner = interner;
+      this.factory = factory;
+    }
+
+    UCFG fromProtobuf(Ucfg.UCFG ucfg) {
+      stringTable = ucfg.getVersion() >= 2;
+      strings = ucfg.getStringsList();
+      deltaLocations = ucfg.getDeltaLocations();
+      LocationInFile ucfgLocation = location(ucfg.hasLocation(), ucfg.getLocation());
+      UCFGBuilder builder = UCFGBuilder.createUCFGForMethod(interner.intern(methodId(ucfg))).at(ucfgLocation);
+      if (stringTable) {
+        ucfg.getParameterRefsList().forEach(ref -> builder.addMethodParam(variable(interner.intern(strings.get(ref)))));
+      } else {
+        ucfg.getParametersList().forEach(pId -> builder.addMethodParam(variable(interner.intern(pId))));
+      }
 
-      Map<String, UCFGBuilder.BlockBuilder> blockById = ucfg.getBasicBlocksList().stream().collect(Collectors.toMap(Ucfg.BasicBlock::getId, UCFGtoProtobuf::fromProtobuf));
+      Map<String, UCFGBuilder.BlockBuilder> blockById = ucfg.getBasicBlocksList().stream().collect(Collectors.toMap(Ucfg.BasicBlock::getId, b -> fromProtobuf(b, ucfgLocation)));
       for (Map.Entry<String, UCFGBuilder.BlockBuilder> entry : blockById.entrySet()) {
         if (ucfg.getEntriesList().contains(entry.getKey())) {
           builder.addStartingBlock(entry.getValue());
@@ -181,88 +310,127 @@ public final class UCFGtoProtobuf {
         }
       }
       return builder.build();
-    } catch (Exception e) {
-      throw new IllegalStateException("An error occured while deserializing UCFG for method "+methodId, e);
     }
-  }
 
-  private static UCFGBuilder.BlockBuilder fromProtobuf(Ucfg.BasicBlock bb) {
-    UCFGBuilder.BlockBuilder blockBuilder = UCFGBuilder.newBasicBlock(bb.getId(), fromProtobuf(bb.getLocation()));
-
-    bb.getInstructionsList().forEach(i -> {
-      if (i.hasAssigncall()) {
-        fromProtobuf(blockBuilder, i.getAssigncall());
-      } else if (i.hasNewObject()) {
-        fromProtobuf(blockBuilder, i.getNewObject());
+    private UCFGBuilder.BlockBuilder fromProtobuf(Ucfg.BasicBlock bb, @Nullable LocationInFile ucfgLocation) {
+      enclosingLocation = ucfgLocation;
+      LocationInFile blockLocation = location(bb.hasLocation(), bb.getLocation());
+      UCFGBuilder.BlockBuilder blockBuilder = UCFGBuilder.newBasicBlock(interner.intern(bb.getId()), blockLocation);
+      if (blockLocation != null) {
+        enclosingLocation = blockLocation;
       }
-    });
 
-    if (bb.hasJump()) {
-      Ucfg.Jump jump = bb.getJump();
-      blockBuilder.jumpTo(jump.getDestinationsList().stream().map(UCFGBuilder::createLabel).toArray(Label[]::new));
-    }
-    if (bb.hasRet()) {
-      Ucfg.Return ret = bb.getRet();
-      blockBuilder.ret(fromProtobuf(ret.getReturnedExpression()), fromProtobuf(ret.getLocation()));
+      bb.getInstructionsList().forEach(i -> {
+        if (i.hasAssigncall()) {
+          fromProtobuf(blockBuilder, i.getAssigncall());
+        } else if (i.hasNewObject()) {
+          fromProtobuf(blockBuilder, i.getNewObject());
+        }
+      });
+
+      if (bb.hasJump()) {
+        Ucfg.Jump jump = bb.getJump();
+        blockBuilder.jumpTo(jump.getDestinationsList().stream().map(id -> UCFGBuilder.createLabel(interner.intern(id))).toArray(Label[]::new));
+      }
+      if (bb.hasRet()) {
+        Ucfg.Return ret = bb.getRet();
+        blockBuilder.ret(fromProtobuf(ret.getReturnedExpression()), location(ret.hasLocation(), ret.getLocation()));
+      }
+      return blockBuilder;
     }
-    return blockBuilder;
-  }
 
-  private static Expression.Variable fromProtobuf(Ucfg.Variable variable) {
-    return UCFGBuilder.variableWithId(variable.getName());
-  }
+    private Expression.Variable fromProtobuf(Ucfg.Variable variable) {
+      return variable(string(variable.getNameRef(), variable.getName()));
+    }
 
-  private static Expression.FieldAccess fromProtobuf(Ucfg.FieldAccess fieldAccess) {
-    Expression.Variable field = fromProtobuf(fieldAccess.getField());
-    if (fieldAccess.hasThis()) {
-      return UCFGBuilder.fieldAccess(field);
-    } else if (fieldAccess.hasClassname()) {
-      return UCFGBuilder.fieldAccess(fromProtobuf(fieldAccess.getClassname()), field);
+    private Expression.FieldAccess fromProtobuf(Ucfg.FieldAccess fieldAccess) {
+      Expression.Variable field = fromProtobuf(fieldAccess.getField());
+      if (fieldAccess.hasThis()) {
+        return factory != null ? factory.fieldAccess(field) : UCFGBuilder.fieldAccess(field);
+      } else if (fieldAccess.hasClassname()) {
+        Expression.ClassName className = fromProtobuf(fieldAccess.getClassname());
+        return factory != null ? factory.fieldAccess(className, field) : UCFGBuilder.fieldAccess(className, field);
+      }
+      Expression.Variable object = fromProtobuf(fieldAccess.getObject());
+      return factory != null ? factory.fieldAccess(object, field) : UCFGBuilder.fieldAccess(object, field);
     }
-    return UCFGBuilder.fieldAccess(fromProtobuf(fieldAccess.getObject()), field);
-  }
 
-  private static Expression.ClassName fromProtobuf(Ucfg.ClassName className) {
-    return UCFGBuilder.clazz(className.getClassname());
-  }
+    private Expression.ClassName fromProtobuf(Ucfg.ClassName className) {
+      String typeName = string(className.getClassnameRef(), className.getClassname());
+      return factory != null ? factory.clazz(typeName) : UCFGBuilder.clazz(typeName);
+    }
 
-  private static UCFGBuilder.BlockBuilder fromProtobuf(UCFGBuilder.BlockBuilder blockBuilder, Ucfg.AssignCall call) {
-    UCFGBuilder.CallBuilder callBuilder = UCFGBuilder.call(call.getMethodId()).withArgs(call.getArgsList().stream().map(UCFGtoProtobuf::fromProtobuf).toArray(Expression[]::new));
-    if (call.hasVariable()) {
-      return blockBuilder.assignTo(fromProtobuf(call.getVariable()), callBuilder, fromProtobuf(call.getLocation()));
+    private UCFGBuilder.BlockBuilder fromProtobuf(UCFGBuilder.BlockBuilder blockBuilder, Ucfg.AssignCall call) {
+      UCFGBuilder.CallBuilder callBuilder = UCFGBuilder.call(string(call.getMethodIdRef(), call.getMethodId()))
+        .withArgs(call.getArgsList().stream().map(this::fromProtobuf).toArray(Expression[]::new));
+      LocationInFile location = location(call.hasLocation(), call.getLocation());
+      if (call.hasVariable()) {
+        return blockBuilder.assignTo(fromProtobuf(call.getVariable()), callBuilder, location);
+      }
+      return blockBuilder.assignTo(fromProtobuf(call.getFieldAccess()), callBuilder, location);
     }
-    return blockBuilder.assignTo(fromProtobuf(call.getFieldAccess()), callBuilder, fromProtobuf(call.getLocation()));
-  }
 
-  private static UCFGBuilder.BlockBuilder fromProtobuf(UCFGBuilder.BlockBuilder blockBuilder, Ucfg.NewObject newObject) {
-    if (newObject.hasVariable()) {
-      return blockBuilder.newObject(fromProtobuf(newObject.getVariable()), newObject.getType(), fromProtobuf(newObject.getLocation()));
+    private UCFGBuilder.BlockBuilder fromProtobuf(UCFGBuilder.BlockBuilder blockBuilder, Ucfg.NewObject newObject) {
+      String type = string(newObject.getTypeRef(), newObject.getType());
+      LocationInFile location = location(newObject.hasLocation(), newObject.getLocation());
+      if (newObject.hasVariable()) {
+        return blockBuilder.newObject(fromProtobuf(newObject.getVariable()), type, location);
+      }
+      return blockBuilder.newObject(fromProtobuf(newObject.getFieldAccess()), type, location);
     }
-    return blockBuilder.newObject(fromProtobuf(newObject.getFieldAccess()), newObject.getType(), fromProtobuf(newObject.getLocation()));
-  }
 
-  private static Expression fromProtobuf(Ucfg.Expression expr) {
-    if (expr.hasConst()) {
-      return UCFGBuilder.constant(expr.getConst().getValue());
+    private Expression fromProtobuf(Ucfg.Expression expr) {
+      if (expr.hasConst()) {
+        String value = expr.getConst().getValue();
+        return factory != null ? factory.constant(value) : UCFGBuilder.constant(value);
+      }
+      if (expr.hasThis()) {
+        return Expression.THIS;
+      }
+      if (expr.hasClassname()) {
+        return fromProtobuf(expr.getClassname());
+      }
+      if (expr.hasFieldAccess()) {
+        return fromProtobuf(expr.getFieldAccess());
+      }
+      return fromProtobuf(expr.getVar());
     }
-    if (expr.hasThis()) {
-      return Expression.THIS;
+
+    /**
+     * Version 1 encodes a null location as the default location, later versions as an absent location.
+     */
+    @CheckForNull
+    private LocationInFile location(boolean present, Ucfg.Location location) {
+      if (!present || (!stringTable && location.equals(Ucfg.Location.getDefaultInstance()))) {
+        return null;
+      }
+      if (deltaLocations && enclosingLocation != null) {
+        int fileRef = location.getDeltaFileIdRef();
+        return location(
+          fileRef == 0 ? enclosingLocation.getFileId() : interner.intern(strings.get(fileRef - 1)),
+          enclosingLocation.getStartLine() + location.getDeltaStartLine(),
+          enclosingLocation.getStartLineOffset() + location.getDeltaStartLineOffset(),
+          enclosingLocation.getEndLine() + location.getDeltaEndLine(),
+          enclosingLocation.getEndLineOffset() + location.getDeltaEndLineOffset());
+      }
+      return location(string(location.getFileIdRef(), location.getFileId()), location.getStartLine(), location.getStartLineOffset(), location.getEndLine(),
+        location.getEndLineOffset());
     }
-    if (expr.hasClassname()) {
-      return fromProtobuf(expr.getClassname());
+
+    private LocationInFile location(String fileId, int startLine, int startLineOffset, int endLine, int endLineOffset) {
+      if (factory != null) {
+        return factory.location(fileId, startLine, startLineOffset, endLine, endLineOffset);
+      }
+      return new LocationInFile(fileId, startLine, startLineOffset, endLine, endLineOffset);
     }
-    if (expr.hasFieldAccess()) {
-      return fromProtobuf(expr.getFieldAccess());
+
+    private String string(int ref, String inlined) {
+      return interner.intern(stringTable ? strings.get(ref) : inlined);
     }
-    return fromProtobuf(expr.getVar());
-  }
 
-  private static LocationInFile fromProtobuf(Ucfg.Location location) {
-    if(location.equals(Ucfg.Location.getDefaultInstance())) {
-      return null;
+    private Expression.Variable variable(String id) {
+      return factory != null ? factory.variableWithId(id) : UCFGBuilder.variableWithId(id);
     }
-    return new LocationInFile(location.getFileId(), location.getStartLine(), location.getStartLineOffset(), location.getEndLine(), location.getEndLineOffset());
   }
 
-
 }
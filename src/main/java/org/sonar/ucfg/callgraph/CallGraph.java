@@ -0,0 +1,253 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg.callgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import org.sonar.ucfg.BasicBlock;
+import org.sonar.ucfg.UCFG;
+import org.sonar.ucfg.UCFGElement;
+
+/**
+ * Call graph of a set of UCFGs, whose edges go from the method of a UCFG to the methods it calls (the method ids of its
+ * {@link UCFGElement.AssignCall} instructions, including pseudo methods like {@code __id}).
+ * <p>
+ * Method ids, of UCFGs or only called, are numbered from 0 to {@link #size()} - 1 in the order they are first seen, and ids are
+ * never reused. Callees of each method are stored as a sorted int array and callers are computed on demand in a compressed
+ * sparse row layout, as in {@link org.sonar.ucfg.UCFGGraph}.
+ * <p>
+ * UCFGs can be added and removed incrementally. This class is not thread-safe: use {@link #build(Collection, ForkJoinPool)}
+ * to read UCFGs in parallel.
+ */
+public final class CallGraph {
+
+  private static final int[] NO_CALLEES = new int[0];
+
+  private final Map<String, Integer> idByMethod = new HashMap<>();
+  private final List<String> methodIds = new ArrayList<>();
+  private int[][] callees = new int[16][];
+  // methods whose UCFG is part of the graph
+  private final BitSet withUCFG = new BitSet();
+  private Callers callers;
+
+  public static CallGraph build(Collection<UCFG> ucfgs) {
+    CallGraph callGraph = new CallGraph();
+    ucfgs.forEach(callGraph::add);
+    return callGraph;
+  }
+
+  /**
+   * Reads the calls of the UCFGs in parallel on the given pool, then numbers method ids in the order of the UCFGs, so that
+   * the result is the same as {@link #build(Collection)}.
+   */
+  public static CallGraph build(Collection<UCFG> ucfgs, ForkJoinPool pool) throws InterruptedException {
+    List<Calls> calls;
+    try {
+      calls = pool.submit(() -> ucfgs.parallelStream().map(Calls::new).collect(Collectors.toList())).get();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("An error occured while building call graph", e.getCause());
+    }
+    CallGraph callGraph = new CallGraph();
+    calls.forEach(callGraph::add);
+    return callGraph;
+  }
+
+  /**
+   * Adds the calls of a UCFG, replacing the calls of a previously added UCFG of the same method.
+   */
+  public void add(UCFG ucfg) {
+    add(new Calls(ucfg));
+  }
+
+  private void add(Calls calls) {
+    int caller = idOrCreate(calls.methodId);
+    int[] ids = new int[calls.calleeIds.size()];
+    int i = 0;
+    for (String callee : calls.calleeIds) {
+      ids[i++] = idOrCreate(callee);
+    }
+    Arrays.sort(ids);
+    callees[caller] = ids;
+    withUCFG.set(caller);
+    callers = null;
+  }
+
+  /**
+   * Removes the calls of the UCFG of the given method. Its id is kept, as it can still be called by other methods.
+   * @return false if there is no UCFG for this method in the graph
+   */
+  public boolean remove(String methodId) {
+    Integer id = idByMethod.get(methodId);
+    if (id == null || !withUCFG.get(id)) {
+      return false;
+    }
+    callees[id] = NO_CALLEES;
+    withUCFG.clear(id);
+    callers = null;
+    return true;
+  }
+
+  private int idOrCreate(String methodId) {
+    Integer id = idByMethod.get(methodId);
+    if (id != null) {
+      return id;
+    }
+    int newId = methodIds.size();
+    idByMethod.put(methodId, newId);
+    methodIds.add(methodId);
+    if (newId == callees.length) {
+      callees = Arrays.copyOf(callees, newId * 2);
+    }
+    callees[newId] = NO_CALLEES;
+    return newId;
+  }
+
+  /**
+   * @return number of method ids, of UCFGs or only called
+   */
+  public int size() {
+    return methodIds.size();
+  }
+
+  public boolean contains(String methodId) {
+    return idByMethod.containsKey(methodId);
+  }
+
+  /**
+   * @throws IllegalArgumentException if the method is neither a UCFG nor called by a UCFG of the graph
+   */
+  public int id(String methodId) {
+    Integer id = idByMethod.get(methodId);
+    if (id == null) {
+      throw new IllegalArgumentException("Unknown method " + methodId);
+    }
+    return id;
+  }
+
+  public String methodId(int method) {
+    return methodIds.get(method);
+  }
+
+  /**
+   * @return true if the UCFG of this method is part of the graph, false if the method is only called
+   */
+  public boolean hasUCFG(int method) {
+    return withUCFG.get(method);
+  }
+
+  public int calleeCount(int method) {
+    return callees[method].length;
+  }
+
+  /**
+   * @return id of the i-th method called by the given method, callees being sorted by id
+   */
+  public int callee(int method, int i) {
+    return callees[method][i];
+  }
+
+  public void forEachCallee(int method, IntConsumer consumer) {
+    for (int callee : callees[method]) {
+      consumer.accept(callee);
+    }
+  }
+
+  public int callerCount(int method) {
+    Callers c = callers();
+    return c.offsets[method + 1] - c.offsets[method];
+  }
+
+  /**
+   * @return id of the i-th method calling the given method, callers being sorted by id
+   */
+  public int caller(int method, int i) {
+    Callers c = callers();
+    return c.callers[c.offsets[method] + i];
+  }
+
+  public void forEachCaller(int method, IntConsumer consumer) {
+    Callers c = callers();
+    for (int p = c.offsets[method]; p < c.offsets[method + 1]; p++) {
+      consumer.accept(c.callers[p]);
+    }
+  }
+
+  private Callers callers() {
+    if (callers == null) {
+      callers = new Callers(callees, size());
+    }
+    return callers;
+  }
+
+  private static class Callers {
+    // callers of method m are callers[offsets[m]] to callers[offsets[m + 1] - 1]
+    private final int[] offsets;
+    private final int[] callers;
+
+    private Callers(int[][] callees, int size) {
+      offsets = new int[size + 1];
+      for (int m = 0; m < size; m++) {
+        for (int callee : callees[m]) {
+          offsets[callee + 1]++;
+        }
+      }
+      for (int m = 0; m < size; m++) {
+        offsets[m + 1] += offsets[m];
+      }
+      callers = new int[offsets[size]];
+      int[] next = Arrays.copyOf(offsets, size);
+      for (int m = 0; m < size; m++) {
+        for (int callee : callees[m]) {
+          callers[next[callee]++] = m;
+        }
+      }
+    }
+  }
+
+  /**
+   * Distinct method ids called by a UCFG, in the order of their first call.
+   */
+  private static class Calls {
+    private final String methodId;
+    private final Set<String> calleeIds = new LinkedHashSet<>();
+
+    private Calls(UCFG ucfg) {
+      methodId = ucfg.methodId();
+      for (BasicBlock block : ucfg.basicBlocks().values()) {
+        for (UCFGElement.Instruction instruction : block.instructions()) {
+          if (instruction instanceof UCFGElement.AssignCall) {
+            calleeIds.add(((UCFGElement.AssignCall) instruction).getMethodId());
+          }
+        }
+      }
+    }
+  }
+}
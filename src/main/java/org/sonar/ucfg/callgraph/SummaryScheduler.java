@@ -0,0 +1,266 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg.callgraph;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.ucfg.UCFG;
+import org.sonar.ucfg.util.StronglyConnectedComponents;
+
+/**
+ * Computes a summary of each method bottom-up in the call graph of a set of UCFGs, on a work-stealing pool: strongly connected
+ * components of the call graph (sets of mutually recursive methods) are summarized as soon as all the components they call are
+ * done, so that independent components are summarized concurrently.
+ * <p>
+ * Methods of a component are summarized one after the other on the same thread, each of them once.
+ */
+public class SummaryScheduler {
+
+  private final ForkJoinPool pool;
+
+  public SummaryScheduler(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  @FunctionalInterface
+  public interface Summarizer<S> {
+    /**
+     * Called concurrently for methods which do not call each other.
+     * @param calleeSummaries gives the summary of a method called by the UCFG: null if the method has no UCFG, or belongs to
+     * the same component and has not been summarized yet
+     * @return the summary of the method, or null if there is none
+     */
+    @CheckForNull
+    S summarize(UCFG ucfg, Function<String, S> calleeSummaries);
+  }
+
+  /**
+   * If UCFGs have the same method id, only the last one is summarized.
+   * @return summaries by method id, for methods with a non-null summary
+   * @throws IllegalStateException if the summarizer fails for a method or the pool rejects a task, in which case no more
+   * methods are summarized, or if called from a thread of the pool: waiting there could leave no thread to run the summaries
+   */
+  public <S> Map<String, S> computeSummaries(Collection<UCFG> ucfgs, Summarizer<S> summarizer) throws InterruptedException {
+    if (ForkJoinTask.getPool() == pool) {
+      throw new IllegalStateException("Method summaries cannot be computed from a thread of the pool computing them");
+    }
+    CallGraph callGraph = CallGraph.build(ucfgs, pool);
+    UCFG[] ucfgById = new UCFG[callGraph.size()];
+    ucfgs.forEach(ucfg -> ucfgById[callGraph.id(ucfg.methodId())] = ucfg);
+    Schedule<S> schedule = new Schedule<>(callGraph, ucfgById, summarizer);
+    schedule.start();
+    schedule.done.await();
+    Throwable failure = schedule.failure.get();
+    if (failure != null) {
+      throw new IllegalStateException("An error occured while computing method summaries", failure);
+    }
+    Map<String, S> result = new HashMap<>();
+    for (int m = 0; m < ucfgById.length; m++) {
+      S summary = schedule.summaries.get(m);
+      if (summary != null) {
+        result.put(callGraph.methodId(m), summary);
+      }
+    }
+    return result;
+  }
+
+  private final class Schedule<S> {
+    private final CallGraph callGraph;
+    private final UCFG[] ucfgById;
+    private final Summarizer<S> summarizer;
+    private final AtomicReferenceArray<S> summaries;
+    private final Components components;
+    // number of components called by each component and not summarized yet
+    private final AtomicIntegerArray pendingCallees;
+    private final CountDownLatch done;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private Schedule(CallGraph callGraph, UCFG[] ucfgById, Summarizer<S> summarizer) {
+      this.callGraph = callGraph;
+      this.ucfgById = ucfgById;
+      this.summarizer = summarizer;
+      summaries = new AtomicReferenceArray<>(ucfgById.length);
+      components = new Components(callGraph);
+      pendingCallees = new AtomicIntegerArray(components.calleeCounts);
+      done = new CountDownLatch(components.count);
+    }
+
+    private void start() {
+      for (int c = 0; c < components.count; c++) {
+        if (components.calleeCounts[c] == 0) {
+          submit(c);
+        }
+      }
+    }
+
+    private void submit(int component) {
+      try {
+        pool.execute(() -> summarize(component));
+      } catch (RuntimeException e) {
+        // the component and its callers will never be summarized
+        failure.compareAndSet(null, e);
+        while (done.getCount() > 0) {
+          done.countDown();
+        }
+      }
+    }
+
+    private void summarize(int component) {
+      try {
+        if (failure.get() == null) {
+          for (int i = components.offsets[component]; i < components.offsets[component + 1]; i++) {
+            int method = components.methods[i];
+            summaries.set(method, summarizer.summarize(ucfgById[method], this::summary));
+          }
+        }
+      } catch (RuntimeException | Error e) {
+        failure.compareAndSet(null, e);
+      } finally {
+        try {
+          for (int i = components.callerOffsets[component]; i < components.callerOffsets[component + 1]; i++) {
+            int caller = components.callers[i];
+            if (pendingCallees.decrementAndGet(caller) == 0) {
+              submit(caller);
+            }
+          }
+        } finally {
+          done.countDown();
+        }
+      }
+    }
+
+    @Nullable
+    private S summary(String methodId) {
+      return callGraph.contains(methodId) ? summaries.get(callGraph.id(methodId)) : null;
+    }
+  }
+
+  /**
+   * Strongly connected components of the methods with a UCFG, and the dependencies between them.
+   */
+  private static final class Components {
+    private final int count;
+    // methods of component c are methods[offsets[c]] to methods[offsets[c + 1] - 1]
+    private final int[] offsets;
+    private final int[] methods;
+    private final int[] calleeCounts;
+    // components calling component c are callers[callerOffsets[c]] to callers[callerOffsets[c + 1] - 1]
+    private final int[] callerOffsets;
+    private final int[] callers;
+
+    private Components(CallGraph callGraph) {
+      int size = callGraph.size();
+      int[] componentOf = new int[size];
+      count = computeComponents(callGraph, componentOf);
+      offsets = new int[count + 1];
+      for (int m = 0; m < size; m++) {
+        if (componentOf[m] >= 0) {
+          offsets[componentOf[m] + 1]++;
+        }
+      }
+      for (int c = 0; c < count; c++) {
+        offsets[c + 1] += offsets[c];
+      }
+      methods = new int[offsets[count]];
+      int[] next = Arrays.copyOf(offsets, count);
+      for (int m = 0; m < size; m++) {
+        if (componentOf[m] >= 0) {
+          methods[next[componentOf[m]]++] = m;
+        }
+      }
+
+      // distinct components called by each component, found with a stamp per component
+      calleeCounts = new int[count];
+      int[][] calleeComponents = new int[count][];
+      int[] stamp = new int[count];
+      Arrays.fill(stamp, -1);
+      int[] buffer = new int[count];
+      callerOffsets = new int[count + 1];
+      for (int c = 0; c < count; c++) {
+        stamp[c] = c;
+        int found = 0;
+        for (int i = offsets[c]; i < offsets[c + 1]; i++) {
+          int method = methods[i];
+          for (int k = 0; k < callGraph.calleeCount(method); k++) {
+            int calleeComponent = componentOf[callGraph.callee(method, k)];
+            if (calleeComponent >= 0 && stamp[calleeComponent] != c) {
+              stamp[calleeComponent] = c;
+              buffer[found++] = calleeComponent;
+            }
+          }
+        }
+        calleeComponents[c] = Arrays.copyOf(buffer, found);
+        calleeCounts[c] = found;
+        for (int i = 0; i < found; i++) {
+          callerOffsets[buffer[i] + 1]++;
+        }
+      }
+      for (int c = 0; c < count; c++) {
+        callerOffsets[c + 1] += callerOffsets[c];
+      }
+      callers = new int[callerOffsets[count]];
+      int[] nextCaller = Arrays.copyOf(callerOffsets, count);
+      for (int c = 0; c < count; c++) {
+        for (int callee : calleeComponents[c]) {
+          callers[nextCaller[callee]++] = c;
+        }
+      }
+    }
+
+    /**
+     * Components of the methods with a UCFG, found bottom-up: callees first.
+     * @return number of components, componentOf being -1 for methods without UCFG
+     */
+    private static int computeComponents(CallGraph callGraph, int[] componentOf) {
+      return StronglyConnectedComponents.compute(new StronglyConnectedComponents.Graph() {
+        @Override
+        public int size() {
+          return callGraph.size();
+        }
+
+        @Override
+        public boolean contains(int node) {
+          return callGraph.hasUCFG(node);
+        }
+
+        @Override
+        public int successorCount(int node) {
+          return callGraph.calleeCount(node);
+        }
+
+        @Override
+        public int successor(int node, int i) {
+          return callGraph.callee(node, i);
+        }
+      }, new int[0], componentOf);
+    }
+  }
+}
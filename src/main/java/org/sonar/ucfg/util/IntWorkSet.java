@@ -0,0 +1,92 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg.util;
+
+import java.util.BitSet;
+
+/**
+ * {@link WorkSet} of ints between 0 and a fixed capacity, such as block indexes of a {@code UCFGGraph}: elements are
+ * popped in the order they were added (FIFO) and an element already in the work set is not added again.
+ * <p>
+ * Elements are queued in a circular int array and deduplicated with a bit set, so that no operation boxes or allocates.
+ */
+public class IntWorkSet {
+
+  private final int[] queue;
+  private final BitSet elements;
+  private int head = 0;
+  private int size = 0;
+
+  public IntWorkSet(int capacity) {
+    queue = new int[capacity];
+    elements = new BitSet(capacity);
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean contains(int element) {
+    return elements.get(element);
+  }
+
+  /**
+   * @throws IndexOutOfBoundsException if the element is not between 0 and the capacity of the work set
+   */
+  public void add(int element) {
+    if (element < 0 || element >= queue.length) {
+      throw new IndexOutOfBoundsException("Element " + element + " is out of bounds [0, " + queue.length + ")");
+    }
+    if (elements.get(element)) {
+      return;
+    }
+    elements.set(element);
+    int tail = head + size;
+    queue[tail < queue.length ? tail : (tail - queue.length)] = element;
+    size++;
+  }
+
+  public void addAll(int... newElements) {
+    for (int element : newElements) {
+      add(element);
+    }
+  }
+
+  /**
+   * Removes an element from the IntWorkSet and returns this element.
+   * The element which is removed is the one which was added first (FIFO).
+   * @return the removed element
+   * @throws IllegalStateException if the IntWorkSet is empty
+   */
+  public int pop() {
+    if (isEmpty()) {
+      throw new IllegalStateException("Cannot pop from an empty IntWorkSet");
+    }
+    int element = queue[head];
+    head = head + 1 == queue.length ? 0 : (head + 1);
+    size--;
+    elements.clear(element);
+    return element;
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class Interners {
+
+  private static final Interner NONE = symbol -> symbol;
+  private static final Interner JVM_POOL = String::intern;
+
+  private Interners() {
+    // utility class
+  }
+
+  /**
+   * Interner returning symbols as is.
+   */
+  public static Interner none() {
+    return NONE;
+  }
+
+  /**
+   * Interner backed by the string pool of the JVM ({@link String#intern()}), shared by the whole JVM: canonical instances
+   * are garbage collected once they are not referenced anymore.
+   */
+  public static Interner jvmPool() {
+    return JVM_POOL;
+  }
+
+  /**
+   * New interner keeping its canonical instances until the interner itself is not referenced anymore,
+   * for instance for the duration of an analysis.
+   */
+  public static Interner arena() {
+    Map<String, String> symbols = new ConcurrentHashMap<>();
+    return symbol -> {
+      String canonical = symbols.putIfAbsent(symbol, symbol);
+      return canonical == null ? symbol : canonical;
+    };
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg.util;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.function.ToIntFunction;
+
+/**
+ * Work set popping elements by increasing priority, for instance basic blocks keyed by their reverse postorder number
+ * (see {@code UCFGGraph#reversePostorderNumber}).
+ * <p>
+ * Priorities are dense: each element has its own priority, between 0 and the capacity of the work set. Pending elements are
+ * tracked in a bit set indexed by priority, so that {@link #add} and {@link #contains} are constant time, and neither
+ * {@link #add} nor {@link #pop} allocate.
+ */
+public class PriorityWorkSet<T> {
+
+  private final ToIntFunction<? super T> priority;
+  private final Object[] elements;
+  private final BitSet pending;
+  private int size = 0;
+  // no pending element has a priority lower than this one
+  private int lowest = 0;
+
+  public PriorityWorkSet(int capacity, ToIntFunction<? super T> priority) {
+    this.priority = priority;
+    this.elements = new Object[capacity];
+    this.pending = new BitSet(capacity);
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean contains(T element) {
+    int p = priority.applyAsInt(element);
+    return p >= 0 && p < elements.length && pending.get(p) && elements[p].equals(element);
+  }
+
+  /**
+   * @return false if the element was already in the work set
+   * @throws IllegalArgumentException if the priority of the element is out of bounds, or is the one of another pending element
+   */
+  public boolean add(T element) {
+    int p = priority.applyAsInt(element);
+    if (p < 0 || p >= elements.length) {
+      throw new IllegalArgumentException("Priority " + p + " is out of bounds [0, " + elements.length + ")");
+    }
+    if (pending.get(p)) {
+      if (!elements[p].equals(element)) {
+        throw new IllegalArgumentException("Priority " + p + " is already used by " + elements[p]);
+      }
+      return false;
+    }
+    elements[p] = element;
+    pending.set(p);
+    size++;
+    if (p < lowest) {
+      lowest = p;
+    }
+    return true;
+  }
+
+  public void addAll(Collection<T> newElements) {
+    for (T element : newElements) {
+      add(element);
+    }
+  }
+
+  /**
+   * Removes the element with the lowest priority from the work set and returns it.
+   * @throws IllegalStateException if the work set is empty
+   */
+  @SuppressWarnings("unchecked")
+  public T pop() {
+    if (isEmpty()) {
+      throw new IllegalStateException("Cannot pop from an empty PriorityWorkSet");
+    }
+    int p = pending.nextSetBit(lowest);
+    pending.clear(p);
+    size--;
+    lowest = p + 1;
+    T element = (T) elements[p];
+    elements[p] = null;
+    return element;
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg.util;
+
+import java.util.Arrays;
+
+/**
+ * Tarjan's algorithm on graphs of ints between 0 and a size, such as block indexes of a {@code UCFGGraph} or method ids of a
+ * {@code CallGraph}. The depth-first search keeps an explicit call stack, so that long chains do not overflow the thread stack.
+ */
+public final class StronglyConnectedComponents {
+
+  private StronglyConnectedComponents() {
+    // utility class
+  }
+
+  public interface Graph {
+    int size();
+
+    /**
+     * @return false for a node which is not part of any component: it is neither visited nor followed as a successor
+     */
+    default boolean contains(int node) {
+      return true;
+    }
+
+    int successorCount(int node);
+
+    int successor(int node, int i);
+  }
+
+  /**
+   * Nodes are visited from the given roots first, then from every node in index order. Components are numbered in the order
+   * they are found, which is a reverse topological order: successors first.
+   * @param componentOf filled with the component of each node, -1 for nodes which are not {@link Graph#contains contained}
+   * @return number of components
+   */
+  public static int compute(Graph graph, int[] roots, int[] componentOf) {
+    int size = graph.size();
+    Arrays.fill(componentOf, 0, size, -1);
+    int[] dfsIndex = new int[size];
+    Arrays.fill(dfsIndex, -1);
+    int[] lowLink = new int[size];
+    boolean[] onStack = new boolean[size];
+    int[] componentStack = new int[size];
+    int componentStackSize = 0;
+    int[] callStack = new int[size];
+    int[] nextSuccessor = new int[size];
+    int index = 0;
+    int found = 0;
+    for (int r = 0; r < roots.length + size; r++) {
+      int root = r < roots.length ? roots[r] : (r - roots.length);
+      if (dfsIndex[root] >= 0 || !graph.contains(root)) {
+        continue;
+      }
+      int depth = 0;
+      callStack[0] = root;
+      nextSuccessor[0] = 0;
+      dfsIndex[root] = index;
+      lowLink[root] = index++;
+      componentStack[componentStackSize++] = root;
+      onStack[root] = true;
+      while (depth >= 0) {
+        int node = callStack[depth];
+        if (nextSuccessor[depth] < graph.successorCount(node)) {
+          int successor = graph.successor(node, nextSuccessor[depth]++);
+          if (!graph.contains(successor)) {
+            continue;
+          }
+          if (dfsIndex[successor] < 0) {
+            depth++;
+            callStack[depth] = successor;
+            nextSuccessor[depth] = 0;
+            dfsIndex[successor] = index;
+            lowLink[successor] = index++;
+            componentStack[componentStackSize++] = successor;
+            onStack[successor] = true;
+          } else if (onStack[successor]) {
+            lowLink[node] = Math.min(lowLink[node], dfsIndex[successor]);
+          }
+          continue;
+        }
+        if (lowLink[node] == dfsIndex[node]) {
+          int member;
+          do {
+            member = componentStack[--componentStackSize];
+            onStack[member] = false;
+            componentOf[member] = found;
+          } while (member != node);
+          found++;
+        }
+        depth--;
+        if (depth >= 0) {
+          int caller = callStack[depth];
+          lowLink[caller] = Math.min(lowLink[caller], lowLink[node]);
+        }
+      }
+    }
+    return found;
+  }
+}
@@ -56,7 +56,7 @@ class BasicBlockTest {
   }
 
   @Test
-  void dead_end_is_not_redundant_but_cycling_and_not_modifiable() {
+  void dead_end_is_not_redundant_but_cycling_and_keeps_its_successors() {
     assertThat(BasicBlock.DEAD_END.isRedundant()).isFalse();
     assertThat(BasicBlock.DEAD_END.successors()).containsOnly(BasicBlock.DEAD_END.label());
     assertThat(BasicBlock.DEAD_END.locationInFile()).isNull();
@@ -65,8 +65,26 @@ class BasicBlockTest {
 
     Label newSuccessorLabel = new Label("1");
     Set<BasicBlock> newSuccessors = Collections.singleton(new BasicBlock(newSuccessorLabel, Collections.emptyList(), new UCFGElement.Ret(null, null), null));
-    BasicBlock.DEAD_END.updateSuccs(newSuccessors);
+    assertThat(BasicBlock.DEAD_END.withSuccessors(newSuccessors)).isSameAs(BasicBlock.DEAD_END);
 
-    assertThat(BasicBlock.DEAD_END.successors()).containsOnly(BasicBlock.DEAD_END.label());
+    BasicBlock deadEnd = BasicBlock.newDeadEnd();
+    assertThat(deadEnd).isNotSameAs(BasicBlock.DEAD_END).isEqualTo(BasicBlock.DEAD_END);
+    assertThat(deadEnd.isDeadEnd()).isTrue();
+    assertThat(new BasicBlock(BasicBlock.DEAD_END.label(), Collections.emptyList(), BasicBlock.DEAD_END.terminator(), null))
+      .isNotEqualTo(BasicBlock.DEAD_END);
+  }
+
+  @Test
+  void successors_are_updated_on_a_copy() {
+    Label dest = new Label("dest");
+    BasicBlock jump = new BasicBlock(new Label("label1"), Collections.emptyList(), new UCFGElement.Jump(Collections.singletonList(dest)), null);
+    BasicBlock newSuccessor = new BasicBlock(new Label("1"), Collections.emptyList(), new UCFGElement.Ret(null, null), null);
+
+    BasicBlock updated = jump.withSuccessors(Collections.singleton(newSuccessor));
+
+    assertThat(updated).isNotSameAs(jump).isEqualTo(jump);
+    assertThat(updated.successors()).containsExactly(newSuccessor.label());
+    assertThat(jump.successors()).containsExactly(dest);
+    assertThat(newSuccessor.withSuccessors(Collections.singleton(jump))).isSameAs(newSuccessor);
   }
 }
@@ -43,6 +43,20 @@ class ExpressionTest {
     assertThat(new Expression.FieldAccess(new Expression.Variable("field")).isVariable()).isFalse();
   }
 
+  @Test
+  void append_to_buffer() {
+    Expression.ClassName className = new Expression.ClassName("A");
+    StringBuilder out = new StringBuilder("> ");
+    new Expression.Constant("c").appendTo(out);
+    Expression.THIS.appendTo(out);
+    className.appendTo(out);
+    new Expression.FieldAccess(new Expression.Variable("f")).appendTo(out);
+    new Expression.FieldAccess(className, new Expression.Variable("f")).appendTo(out);
+    new Expression.FieldAccess(new Expression.Variable("o"), new Expression.Variable("f")).appendTo(out);
+    assertThat(out.toString()).isEqualTo("> \"c\"_this_ClassName:AFieldAccess _this_ fFieldAccess ClassName:A fFieldAccess o f");
+    assertThat(new Expression.FieldAccess(className, new Expression.Variable("f"))).hasToString("FieldAccess ClassName:A f");
+  }
+
   @Test
   void assertEquals_hashcode() {
     Expression.Constant constant = new Expression.Constant("constant");
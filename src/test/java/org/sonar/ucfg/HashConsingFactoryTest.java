@@ -0,0 +1,85 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.sonar.ucfg.UCFGBuilder.variableWithId;
+
+class HashConsingFactoryTest {
+
+  @Test
+  void expressions_are_shared() {
+    HashConsingFactory factory = new HashConsingFactory();
+    Expression.Variable var = factory.variableWithId("var");
+    assertThat(factory.variableWithId(new String("var"))).isSameAs(var).isEqualTo(variableWithId("var"));
+    assertThat(factory.variableWithId("other")).isNotSameAs(var);
+    assertThat(factory.constant("const")).isSameAs(factory.constant("const")).isEqualTo(UCFGBuilder.constant("const"));
+    assertThat(factory.clazz("org.foo.A")).isSameAs(factory.clazz("org.foo.A")).isEqualTo(UCFGBuilder.clazz("org.foo.A"));
+
+    Expression.FieldAccess thisField = factory.fieldAccess(variableWithId("field"));
+    assertThat(factory.fieldAccess(variableWithId("field"))).isSameAs(thisField);
+    assertThat(thisField.object()).isSameAs(Expression.THIS);
+    assertThat(thisField.field()).isSameAs(factory.variableWithId("field"));
+
+    Expression.FieldAccess objectField = factory.fieldAccess(variableWithId("var"), variableWithId("field"));
+    assertThat(factory.fieldAccess(variableWithId("var"), variableWithId("field"))).isSameAs(objectField).isNotSameAs(thisField);
+    assertThat(objectField.object()).isSameAs(var);
+    assertThat(objectField).isEqualTo(UCFGBuilder.fieldAccess(variableWithId("var"), variableWithId("field")));
+
+    Expression.FieldAccess staticField = factory.fieldAccess(UCFGBuilder.clazz("var"), variableWithId("field"));
+    assertThat(factory.fieldAccess(UCFGBuilder.clazz("var"), variableWithId("field"))).isSameAs(staticField).isNotEqualTo(objectField);
+  }
+
+  @Test
+  void locations_are_shared() {
+    HashConsingFactory factory = new HashConsingFactory();
+    LocationInFile location = factory.location("file", 1, 2, 3, 4);
+    assertThat(factory.location("file", 1, 2, 3, 4)).isSameAs(location);
+    assertThat(factory.canonical(new LocationInFile("file", 1, 2, 3, 4))).isSameAs(location);
+    assertThat(factory.location("file", 1, 2, 3, 5)).isNotSameAs(location);
+  }
+
+  @Test
+  void locations_are_found_after_growing() {
+    HashConsingFactory factory = new HashConsingFactory();
+    List<LocationInFile> locations = IntStream.range(0, 10_000).mapToObj(i -> factory.location("file" + (i % 7), i, i % 3, i + 1, 0)).collect(Collectors.toList());
+    for (int i = 0; i < locations.size(); i++) {
+      assertThat(factory.location("file" + (i % 7), i, i % 3, i + 1, 0)).isSameAs(locations.get(i));
+    }
+    assertThat(factory.canonical(new LocationInFile("file0", 7, 1, 8, 0))).isSameAs(locations.get(7));
+  }
+
+  @Test
+  void concurrent_access() {
+    HashConsingFactory factory = new HashConsingFactory();
+    List<LocationInFile> locations = IntStream.range(0, 20_000).parallel().mapToObj(i -> factory.location("file", i % 1000, 0, i % 1000, 1))
+      .collect(Collectors.toList());
+    for (int i = 0; i < locations.size(); i++) {
+      assertThat(locations.get(i)).isSameAs(factory.location("file", i % 1000, 0, i % 1000, 1));
+    }
+    List<Expression.Variable> variables = IntStream.range(0, 1000).parallel().mapToObj(i -> factory.variableWithId("var" + (i % 3))).collect(Collectors.toList());
+    assertThat(variables.stream().filter(v -> v.id().equals("var0")).allMatch(v -> v == factory.variableWithId("var0"))).isTrue();
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.sonar.ucfg.benchmark.SyntheticUCFGs;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class UCFGAsyncWriterTest {
+
+  @Test
+  void write_ucfgs_in_order() throws Exception {
+    List<UCFG> ucfgs = IntStream.range(0, 200).mapToObj(i -> SyntheticUCFGs.method("A#m" + i + "()V", "fileKey", 1 + i % 10, 3)).collect(Collectors.toList());
+    String filename = "target/async_container.ucfgs";
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try (UCFGAsyncWriter writer = UCFGAsyncWriter.create(filename, true, executor, 4)) {
+      for (int i = 0; i < 100; i++) {
+        writer.write(ucfgs.get(i));
+      }
+      writer.flush();
+      assertThat(new File(filename).length()).isPositive();
+      for (int i = 100; i < 200; i++) {
+        writer.write(ucfgs.get(i));
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    List<UCFG> read = UCFGtoProtobuf.fromProtobufContainer(new File(filename));
+    assertThat(read).extracting(UCFG::methodId).containsExactlyElementsOf(ucfgs.stream().map(UCFG::methodId).collect(Collectors.toList()));
+    assertThat(read.get(42).basicBlocks()).isEqualTo(ucfgs.get(42).basicBlocks());
+    new File(filename).delete();
+  }
+
+  @Test
+  void producer_waits_for_pending_ucfgs() throws Exception {
+    String filename = "target/async_backpressure.ucfgs";
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    CountDownLatch serializerBlocked = new CountDownLatch(1);
+    executor.submit(() -> {
+      serializerBlocked.await();
+      return null;
+    });
+    try (UCFGAsyncWriter writer = UCFGAsyncWriter.create(filename, false, executor, 2)) {
+      writer.write(SyntheticUCFGs.method("A#m1()V", "fileKey", 2, 2));
+      writer.write(SyntheticUCFGs.method("A#m2()V", "fileKey", 2, 2));
+      CompletableFuture<Void> third = CompletableFuture.runAsync(() -> {
+        try {
+          writer.write(SyntheticUCFGs.method("A#m3()V", "fileKey", 2, 2));
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+      Thread.sleep(100);
+      assertThat(third.isDone()).isFalse();
+      serializerBlocked.countDown();
+      third.get(10, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdown();
+    }
+    assertThat(UCFGtoProtobuf.fromProtobufContainer(new File(filename))).extracting(UCFG::methodId).containsExactly("A#m1()V", "A#m2()V", "A#m3()V");
+    new File(filename).delete();
+  }
+
+  @Test
+  void report_serialization_failure() throws Exception {
+    String filename = "target/async_failure.ucfgs";
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    UCFG failing = new UCFG("A#failing()V", Collections.emptyList(), null, () -> {
+      throw new IllegalStateException("cannot decode");
+    });
+    UCFGAsyncWriter writer = UCFGAsyncWriter.create(filename, false, executor, 2);
+    writer.write(SyntheticUCFGs.method("A#m1()V", "fileKey", 2, 2));
+    writer.write(failing);
+    IOException e = assertThrows(IOException.class, writer::flush);
+    assertThat(e.getCause()).hasMessageContaining("A#failing()V");
+    assertThrows(IOException.class, () -> writer.write(SyntheticUCFGs.method("A#m2()V", "fileKey", 2, 2)));
+    assertThrows(IOException.class, writer::close);
+    assertThat(UCFGContainerReader.isContainer(new File(filename))).isFalse();
+    assertThrows(IllegalStateException.class, () -> writer.write(failing));
+    executor.shutdown();
+    new File(filename).delete();
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.sonar.ucfg.UCFGBuilder.call;
+import static org.sonar.ucfg.UCFGBuilder.createLabel;
+import static org.sonar.ucfg.UCFGBuilder.newBasicBlock;
+import static org.sonar.ucfg.UCFGBuilder.variableWithId;
+
+class UCFGContainerReaderTest {
+
+  private static UCFG ucfg(String methodId, String callee) {
+    Expression.Variable param = variableWithId("param");
+    return UCFGBuilder.createUCFGForMethod(methodId).addMethodParam(param)
+      .at(new LocationInFile("fileKey", 1, 0, 10, 1))
+      .addStartingBlock(newBasicBlock("start", new LocationInFile("fileKey", 2, 0, 2, 10))
+        .assignTo(variableWithId("var"), call(callee).withArgs(param), new LocationInFile("fileKey", 2, 0, 2, 10))
+        .jumpTo(createLabel("end")))
+      .addBasicBlock(newBasicBlock("end", new LocationInFile("fileKey", 3, 0, 3, 10))
+        .ret(variableWithId("var"), new LocationInFile("fileKey", 3, 0, 3, 10)))
+      .build();
+  }
+
+  @Test
+  void write_and_read_container() throws IOException {
+    List<UCFG> ucfgs = Arrays.asList(ucfg("A#foo()V", "A#bar()V"), ucfg("A#bar()V", "A#qix()V"), ucfg("A#qix()V", "A#foo()V"));
+    String filename = "target/container.ucfgs";
+    UCFGtoProtobuf.toProtobufContainer(ucfgs, filename);
+    File file = new File(filename);
+    assertThat(UCFGContainerReader.isContainer(file)).isTrue();
+
+    try (UCFGContainerReader reader = UCFGContainerReader.open(file)) {
+      assertThat(reader.methodIds()).containsExactly("A#foo()V", "A#bar()V", "A#qix()V");
+      UCFG bar = reader.read("A#bar()V");
+      assertThat(bar.methodId()).isEqualTo("A#bar()V");
+      assertThat(bar.location()).isEqualTo(new LocationInFile("fileKey", 1, 0, 10, 1));
+      assertThat(new UCFGPrinter(bar).toString()).isEqualTo(new UCFGPrinter(ucfgs.get(1)).toString());
+      assertThat(reader.read("A#unknown()V")).isNull();
+      // random access in any order
+      assertThat(reader.read("A#qix()V").methodId()).isEqualTo("A#qix()V");
+      assertThat(reader.read("A#foo()V").methodId()).isEqualTo("A#foo()V");
+    }
+
+    try (UCFGContainerReader reader = UCFGContainerReader.open(file)) {
+      List<UCFGSummary> summaries = reader.scanAll();
+      assertThat(summaries).extracting(UCFGSummary::methodId).containsExactly("A#foo()V", "A#bar()V", "A#qix()V");
+      assertThat(summaries.get(0).callees()).containsExactly("A#bar()V");
+      assertThat(summaries.get(0).location()).isEqualTo(new LocationInFile("fileKey", 1, 0, 10, 1));
+    }
+
+    List<UCFG> read = UCFGtoProtobuf.fromProtobufContainer(file);
+    assertThat(read).extracting(UCFG::methodId).containsExactly("A#foo()V", "A#bar()V", "A#qix()V");
+    for (int i = 0; i < ucfgs.size(); i++) {
+      assertThat(read.get(i).basicBlocks().values()).containsExactlyElementsOf(ucfgs.get(i).basicBlocks().values());
+    }
+    file.delete();
+  }
+
+  @Test
+  void stream_container() throws IOException {
+    List<UCFG> ucfgs = IntStream.range(0, 50).mapToObj(i -> ucfg("A#m" + i + "()V", "A#m" + (i + 1) + "()V")).collect(Collectors.toList());
+    String filename = "target/stream_container.ucfgs";
+    UCFGtoProtobuf.toProtobufContainer(ucfgs, filename);
+    File file = new File(filename);
+    List<String> expectedIds = ucfgs.stream().map(UCFG::methodId).collect(Collectors.toList());
+
+    try (Stream<UCFG> stream = UCFGtoProtobuf.streamProtobufContainer(file)) {
+      assertThat(stream.map(UCFG::methodId)).containsExactlyElementsOf(expectedIds);
+    }
+    try (Stream<UCFG> stream = UCFGtoProtobuf.streamProtobufContainer(file)) {
+      assertThat(stream.parallel().map(UCFG::methodId).collect(Collectors.toList())).containsExactlyElementsOf(expectedIds);
+    }
+    try (UCFGContainerReader reader = UCFGContainerReader.open(file)) {
+      assertThat(reader.stream().skip(10).findFirst().get().methodId()).isEqualTo("A#m10()V");
+    }
+    file.delete();
+  }
+
+  @Test
+  void memory_mapped_container() throws IOException {
+    List<UCFG> ucfgs = IntStream.range(0, 50).mapToObj(i -> ucfg("A#m" + i + "()V", "A#m" + (i + 1) + "()V")).collect(Collectors.toList());
+    String filename = "target/mapped_container.ucfgs";
+    UCFGtoProtobuf.toProtobufContainer(ucfgs, filename);
+    File file = new File(filename);
+    List<String> expectedIds = ucfgs.stream().map(UCFG::methodId).collect(Collectors.toList());
+
+    try (UCFGContainerReader reader = UCFGContainerReader.openMapped(file)) {
+      assertThat(reader.readAll()).extracting(UCFG::methodId).containsExactlyElementsOf(expectedIds);
+      UCFG read = reader.read("A#m42()V");
+      assertThat(read.basicBlocks().values()).containsExactlyElementsOf(ucfgs.get(42).basicBlocks().values());
+      assertThat(reader.stream().parallel().map(UCFG::methodId).collect(Collectors.toList())).containsExactlyElementsOf(expectedIds);
+      assertThat(reader.scanAll().get(42).callees()).containsExactly("A#m43()V");
+    }
+    file.delete();
+  }
+
+  @Test
+  void empty_container() throws IOException {
+    String filename = "target/empty_container.ucfgs";
+    UCFGtoProtobuf.toProtobufContainer(Arrays.asList(), filename);
+    File file = new File(filename);
+    assertThat(UCFGContainerReader.isContainer(file)).isTrue();
+    assertThat(UCFGtoProtobuf.fromProtobufContainer(file)).isEmpty();
+    file.delete();
+  }
+
+  @Test
+  void close_twice() throws IOException {
+    String filename = "target/closed_twice.ucfgs";
+    UCFGContainerWriter writer = UCFGContainerWriter.create(filename);
+    writer.write(ucfg("A#foo()V", "A#bar()V"));
+    writer.close();
+    File file = new File(filename);
+    long length = file.length();
+    writer.close();
+    assertThat(file.length()).isEqualTo(length);
+    assertThat(UCFGtoProtobuf.fromProtobufContainer(file)).extracting(UCFG::methodId).containsExactly("A#foo()V");
+    file.delete();
+  }
+
+  @Test
+  void single_ucfg_file_is_not_a_container() throws IOException {
+    String filename = "target/single.ucfg";
+    UCFGtoProtobuf.toProtobufFile(ucfg("A#foo()V", "A#bar()V"), filename);
+    File file = new File(filename);
+    assertThat(UCFGContainerReader.isContainer(file)).isFalse();
+    IllegalStateException e = assertThrows(IllegalStateException.class, () -> UCFGContainerReader.open(file));
+    assertThat(e).hasMessage("Not a UCFG container: " + file);
+    file.delete();
+  }
+}
@@ -19,8 +19,10 @@
  */
 package org.sonar.ucfg;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -132,4 +134,31 @@ class UCFGElementTest {
       .isNotEqualTo(fieldAccessNewObject);
     assertThat(newObject.hashCode()).isEqualTo(newObject2.hashCode()).isNotEqualTo(newObject3.hashCode());
   }
+
+  @Test
+  void lists_given_to_constructors_are_copied() {
+    List<Label> destinations = new ArrayList<>(Collections.singletonList(new Label("1")));
+    UCFGElement.Jump jump = new UCFGElement.Jump(destinations);
+    int jumpHash = jump.hashCode();
+    destinations.set(0, new Label("2"));
+    assertThat(jump.destinations()).containsExactly(new Label("1"));
+    assertThat(jump.hashCode()).isEqualTo(jumpHash).isEqualTo(new UCFGElement.Jump(Collections.singletonList(new Label("1"))).hashCode());
+
+    List<Expression> args = new ArrayList<>(Collections.singletonList(new Expression.Variable("a")));
+    UCFGElement.AssignCall call = new UCFGElement.AssignCall(loc, new Expression.Variable("x"), "f", args);
+    int callHash = call.hashCode();
+    args.add(new Expression.Variable("b"));
+    assertThat(call.getArgExpressions()).containsExactly(new Expression.Variable("a"));
+    assertThat(call.hashCode()).isEqualTo(callHash);
+
+    List<UCFGElement.Instruction> instructions = new ArrayList<>(Collections.singletonList(call));
+    BasicBlock block = new BasicBlock(new Label("1"), instructions, jump, loc);
+    instructions.clear();
+    assertThat(block.instructions()).containsExactly(call);
+
+    List<Expression.Variable> parameters = new ArrayList<>(Collections.singletonList(new Expression.Variable("p")));
+    UCFG ucfg = new UCFG("A#m()V", parameters, Collections.singleton(block), Collections.singleton(block), loc);
+    parameters.clear();
+    assertThat(ucfg.parameters()).containsExactly(new Expression.Variable("p"));
+  }
 }
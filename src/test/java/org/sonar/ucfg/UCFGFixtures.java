@@ -0,0 +1,57 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg;
+
+import static org.sonar.ucfg.UCFGBuilder.call;
+import static org.sonar.ucfg.UCFGBuilder.clazz;
+import static org.sonar.ucfg.UCFGBuilder.constant;
+import static org.sonar.ucfg.UCFGBuilder.createLabel;
+import static org.sonar.ucfg.UCFGBuilder.fieldAccess;
+import static org.sonar.ucfg.UCFGBuilder.newBasicBlock;
+import static org.sonar.ucfg.UCFGBuilder.variableWithId;
+
+final class UCFGFixtures {
+
+  private UCFGFixtures() {
+    // fixtures
+  }
+
+  /**
+   * @return UCFG using every kind of instruction, terminator and expression, with locations in two files
+   */
+  static UCFG allElements() {
+    Expression.Variable param = variableWithId("param");
+    Expression.Variable var = variableWithId("var");
+    Expression.FieldAccess objectField = fieldAccess(variableWithId("obj"), variableWithId("field"));
+    Expression.FieldAccess staticField = fieldAccess(clazz("org.foo.A"), variableWithId("field"));
+    UCFGBuilder builder = UCFGBuilder.createUCFGForMethod("A#m(I)V").addMethodParam(param).at(new LocationInFile("fileKey", 1, 0, 10, 1));
+    builder.addStartingBlock(newBasicBlock("1", new LocationInFile("fileKey", 2, 0, 3, 4))
+      .newObject(var, "org.foo.A", new LocationInFile("fileKey", 2, 4, 2, 20))
+      .assignTo(objectField, call("A#f()V").withArgs(Expression.THIS, constant(""), constant("\"c\""), clazz("org.foo.A")), new LocationInFile("other", 3, 4, 3, 20))
+      .jumpTo(createLabel("2"), createLabel("3")));
+    builder.addBasicBlock(newBasicBlock("2", null)
+      .assignTo(var, call("__id").withArgs(fieldAccess(variableWithId("field")), staticField, objectField), new LocationInFile("fileKey", 4, 4, 4, 20))
+      .newObject(staticField, "org.foo.B", new LocationInFile("fileKey", 0, 0, 0, 0))
+      .ret(var, new LocationInFile("fileKey", 5, 4, 5, 10)));
+    builder.addBasicBlock(newBasicBlock("3", new LocationInFile("fileKey", 6, 0, 6, 10))
+      .ret(constant(""), new LocationInFile("fileKey", 6, 4, 6, 10)));
+    return builder.build();
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.sonar.ucfg.UCFGBuilder.call;
+import static org.sonar.ucfg.UCFGBuilder.constant;
+import static org.sonar.ucfg.UCFGBuilder.createLabel;
+import static org.sonar.ucfg.UCFGBuilder.createUCFGForMethod;
+import static org.sonar.ucfg.UCFGBuilder.newBasicBlock;
+import static org.sonar.ucfg.UCFGBuilder.variableWithId;
+
+class UCFGGraphTest {
+
+  @Test
+  void successors_and_predecessors() {
+    Expression.Variable var = variableWithId("var");
+    UCFG ucfg = createUCFGForMethod("A#m()V")
+      .addStartingBlock(newBasicBlock("start").assignTo(var, call("f").withArgs()).jumpTo(createLabel("loop"), createLabel("exit")))
+      .addBasicBlock(newBasicBlock("loop").assignTo(var, call("g").withArgs()).jumpTo(createLabel("empty")))
+      // redundant block, removed from the graph
+      .addBasicBlock(newBasicBlock("empty").jumpTo(createLabel("loop"), createLabel("exit")))
+      .addBasicBlock(newBasicBlock("exit").ret(constant("c")))
+      .build();
+    UCFGGraph graph = ucfg.graph();
+    assertThat(ucfg.graph()).isSameAs(graph);
+    assertThat(graph.size()).isEqualTo(3);
+    int start = graph.index(createLabel("start"));
+    int loop = graph.index(createLabel("loop"));
+    int exit = graph.index(createLabel("exit"));
+    assertThat(graph.block(start).label()).isEqualTo(createLabel("start"));
+    assertThat(graph.entryCount()).isEqualTo(1);
+    assertThat(graph.entry(0)).isEqualTo(start);
+
+    assertThat(successors(graph, start)).containsExactly(loop, exit);
+    assertThat(successors(graph, loop)).containsExactlyInAnyOrder(loop, exit);
+    assertThat(graph.successorCount(exit)).isZero();
+    assertThat(graph.successor(start, 1)).isEqualTo(exit);
+
+    assertThat(predecessors(graph, start)).isEmpty();
+    assertThat(predecessors(graph, loop)).containsExactlyInAnyOrder(start, loop);
+    assertThat(predecessors(graph, exit)).containsExactlyInAnyOrder(start, loop);
+    assertThat(graph.predecessorCount(exit)).isEqualTo(2);
+    assertThat(graph.predecessor(exit, 0)).isLessThan(graph.predecessor(exit, 1));
+
+    assertThrows(IllegalArgumentException.class, () -> graph.index(createLabel("empty")));
+
+    assertThat(graph.exitCount()).isEqualTo(1);
+    assertThat(graph.exit(0)).isEqualTo(exit);
+    BasicBlock exitBlock = graph.block(exit);
+    assertThat(ucfg.exitBlocks()).containsExactly(exitBlock);
+    assertThat(ucfg.predecessors(exitBlock)).containsExactly(graph.block(graph.predecessor(exit, 0)), graph.block(graph.predecessor(exit, 1)));
+    assertThat(ucfg.predecessors(graph.block(start))).isEmpty();
+    assertThrows(UnsupportedOperationException.class, () -> ucfg.predecessors(exitBlock).clear());
+    assertThrows(UnsupportedOperationException.class, () -> ucfg.exitBlocks().clear());
+  }
+
+  @Test
+  void dead_end_is_part_of_the_graph() {
+    UCFG ucfg = createUCFGForMethod("A#m()V")
+      .addStartingBlock(newBasicBlock("start").assignTo(variableWithId("var"), call("f").withArgs()).jumpTo(createLabel("empty")))
+      .addBasicBlock(newBasicBlock("empty").jumpTo(createLabel("empty")))
+      .build();
+    UCFGGraph graph = ucfg.graph();
+    int deadEnd = graph.index(BasicBlock.DEAD_END.label());
+    assertThat(successors(graph, graph.index(createLabel("start")))).containsExactly(deadEnd);
+    assertThat(successors(graph, deadEnd)).containsExactly(deadEnd);
+    assertThat(predecessors(graph, deadEnd)).containsExactlyInAnyOrder(graph.index(createLabel("start")), deadEnd);
+    assertThat(ucfg.exitBlocks()).containsExactly(BasicBlock.DEAD_END);
+    assertThat(ucfg.predecessors(BasicBlock.DEAD_END)).hasSize(2).contains(BasicBlock.DEAD_END);
+  }
+
+  private static List<Integer> successors(UCFGGraph graph, int block) {
+    List<Integer> result = new ArrayList<>();
+    graph.forEachSuccessor(block, result::add);
+    return result;
+  }
+
+  private static List<Integer> predecessors(UCFGGraph graph, int block) {
+    List<Integer> result = new ArrayList<>();
+    graph.forEachPredecessor(block, result::add);
+    return result;
+  }
+
+  @Test
+  void traversal_orders_and_components() {
+    // 0 -> 1 -> 2 -> 1, 2 -> 3 -> 3, 0 -> 4 -> 3
+    UCFG ucfg = ucfg(new int[][] {{1, 4}, {2}, {1, 3}, {3}, {3}}, 5);
+    UCFGGraph graph = ucfg.graph();
+    List<String> rpo = ucfg.reversePostorder().stream().map(b -> b.label().id()).collect(Collectors.toList());
+    assertThat(rpo).hasSize(5).startsWith("b0").endsWith("b3");
+    assertThat(rpo.indexOf("b1")).isLessThan(rpo.indexOf("b2"));
+    List<BasicBlock> postorder = new ArrayList<>(ucfg.postorder());
+    Collections.reverse(postorder);
+    assertThat(postorder).isEqualTo(ucfg.reversePostorder());
+    for (int i = 0; i < graph.size(); i++) {
+      assertThat(graph.reversePostorderNumber(graph.blockInReversePostorder(i))).isEqualTo(i);
+    }
+
+    List<List<String>> components = ucfg.stronglyConnectedComponents().stream()
+      .map(c -> c.stream().map(b -> b.label().id()).collect(Collectors.toList()))
+      .collect(Collectors.toList());
+    assertThat(components).hasSize(4);
+    assertThat(components.get(0)).containsExactly("b0");
+    assertThat(components).contains(Arrays.asList("b1", "b2"), Collections.singletonList("b4"));
+    assertThat(components.get(3)).containsExactly("b3");
+    assertThat(graph.isLoop(graph.component(graph.index(createLabel("b0"))))).isFalse();
+    assertThat(graph.isLoop(graph.component(graph.index(createLabel("b1"))))).isTrue();
+    assertThat(graph.isLoop(graph.component(graph.index(createLabel("b3"))))).isTrue();
+    assertThat(ucfg.stronglyConnectedComponents()).isSameAs(ucfg.stronglyConnectedComponents());
+  }
+
+  @Test
+  void unreachable_blocks_come_last() {
+    BasicBlock exit = newBasicBlock("exit").ret(constant("c")).build();
+    BasicBlock entry = newBasicBlock("entry").assignTo(variableWithId("var"), call("f").withArgs()).jumpTo(exit.label()).build();
+    List<BasicBlock> blocks = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      blocks.add(newBasicBlock("dead" + i).assignTo(variableWithId("var"), call("g").withArgs()).jumpTo(exit.label()).build());
+    }
+    blocks.add(entry);
+    blocks.add(exit);
+    UCFG ucfg = new UCFG("A#m()V", Collections.emptyList(), new HashSet<>(blocks), Collections.singleton(entry), UCFGBuilder.LOC);
+    UCFGGraph graph = ucfg.graph();
+
+    List<String> rpo = ucfg.reversePostorder().stream().map(b -> b.label().id()).collect(Collectors.toList());
+    assertThat(rpo).hasSize(12).startsWith("entry", "exit");
+    assertThat(rpo.subList(2, 12)).allMatch(id -> id.startsWith("dead"));
+    assertThat(ucfg.postorder().stream().map(b -> b.label().id()).limit(2)).containsExactly("exit", "entry");
+    for (int i = 0; i < graph.size(); i++) {
+      assertThat(graph.reversePostorderNumber(graph.blockInReversePostorder(i))).isEqualTo(i);
+    }
+  }
+
+  @Test
+  void components_of_random_graphs() {
+    Random random = new Random(42);
+    for (int n = 0; n < 50; n++) {
+      int size = 1 + random.nextInt(30);
+      int[][] successors = new int[size][];
+      for (int b = 0; b < size; b++) {
+        successors[b] = random.ints(random.nextInt(3), 0, size).distinct().toArray();
+      }
+      UCFG ucfg = ucfg(successors, size);
+      UCFGGraph graph = ucfg.graph();
+      boolean[][] reaches = transitiveClosure(graph);
+      for (int a = 0; a < graph.size(); a++) {
+        for (int b = 0; b < graph.size(); b++) {
+          boolean sameComponent = a == b || (reaches[a][b] && reaches[b][a]);
+          assertThat(graph.component(a) == graph.component(b)).isEqualTo(sameComponent);
+          if (!sameComponent && reaches[a][b]) {
+            assertThat(graph.component(a)).isLessThan(graph.component(b));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  void deep_graphs_do_not_overflow_the_stack() {
+    int size = 100_000;
+    int[][] successors = new int[size][];
+    for (int b = 0; b < size; b++) {
+      successors[b] = b < size - 1 ? new int[] {b + 1} : new int[] {0};
+    }
+    UCFG ucfg = ucfg(successors, size);
+    assertThat(ucfg.reversePostorder().get(size - 1).label().id()).isEqualTo("b" + (size - 1));
+    assertThat(ucfg.stronglyConnectedComponents()).hasSize(1);
+  }
+
+  private static boolean[][] transitiveClosure(UCFGGraph graph) {
+    int size = graph.size();
+    boolean[][] reaches = new boolean[size][size];
+    for (int b = 0; b < size; b++) {
+      int from = b;
+      graph.forEachSuccessor(b, s -> reaches[from][s] = true);
+    }
+    for (int k = 0; k < size; k++) {
+      for (int i = 0; i < size; i++) {
+        for (int j = 0; j < size; j++) {
+          reaches[i][j] |= reaches[i][k] && reaches[k][j];
+        }
+      }
+    }
+    return reaches;
+  }
+
+  /**
+   * Blocks "b0" to "b(size-1)", "b0" being the entry, blocks without successor return.
+   */
+  private static UCFG ucfg(int[][] successors, int size) {
+    UCFGBuilder builder = createUCFGForMethod("A#m()V");
+    for (int b = 0; b < size; b++) {
+      UCFGBuilder.BlockBuilder block = newBasicBlock("b" + b).assignTo(variableWithId("var"), call("f").withArgs());
+      if (successors[b].length == 0) {
+        block.ret(constant("c"));
+      } else {
+        block.jumpTo(Arrays.stream(successors[b]).mapToObj(s -> createLabel("b" + s)).toArray(Label[]::new));
+      }
+      if (b == 0) {
+        builder.addStartingBlock(block);
+      } else {
+        builder.addBasicBlock(block);
+      }
+    }
+    return builder.build();
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.sonar.ucfg.util.Interner;
+import org.sonar.ucfg.util.Interners;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.sonar.ucfg.UCFGBuilder.call;
+import static org.sonar.ucfg.UCFGBuilder.newBasicBlock;
+import static org.sonar.ucfg.UCFGBuilder.variableWithId;
+
+class UCFGLoaderTest {
+
+  private static UCFG ucfg(String methodId) {
+    return UCFGBuilder.createUCFGForMethod(methodId)
+      .addBasicBlock(newBasicBlock("start").assignTo(variableWithId("var"), call("callee").withArgs()).ret(variableWithId("var")))
+      .build();
+  }
+
+  @Test
+  void load_files_and_containers_in_order() throws Exception {
+    List<File> files = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      String filename = "target/loader_" + i + ".protobuf";
+      UCFGtoProtobuf.toProtobufFile(ucfg("method" + i), filename);
+      files.add(new File(filename));
+    }
+    UCFGtoProtobuf.toProtobufContainer(Arrays.asList(ucfg("c1"), ucfg("c2")), "target/loader_container.ucfgs");
+    files.add(5, new File("target/loader_container.ucfgs"));
+    File corrupted = new File("target/loader_corrupted.protobuf");
+    Files.write(corrupted.toPath(), new byte[] {42, 42, 42});
+    files.add(10, corrupted);
+    files.add(20, new File("target/loader_missing.protobuf"));
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      List<UCFGLoader.Result> results = new UCFGLoader(pool, 3).load(files);
+      assertThat(results).extracting(UCFGLoader.Result::file).containsExactlyElementsOf(files);
+      assertThat(results.get(0).isSuccess()).isTrue();
+      assertThat(results.get(0).failure()).isNull();
+      assertThat(results.get(0).ucfgs()).extracting(UCFG::methodId).containsExactly("method0");
+      assertThat(results.get(5).ucfgs()).extracting(UCFG::methodId).containsExactly("c1", "c2");
+      assertThat(results.get(10).isSuccess()).isFalse();
+      assertThat(results.get(10).failure()).isInstanceOf(IllegalStateException.class);
+      assertThat(results.get(10).ucfgs()).isEmpty();
+      assertThat(results.get(20).failure()).isInstanceOf(IOException.class);
+      assertThat(results.stream().filter(UCFGLoader.Result::isSuccess).count()).isEqualTo(31);
+    } finally {
+      pool.shutdown();
+    }
+    files.forEach(File::delete);
+  }
+
+  @Test
+  void containers_are_loaded_in_ranges() throws Exception {
+    List<UCFG> ucfgs = IntStream.range(0, 10).mapToObj(i -> ucfg("c" + i)).collect(Collectors.toList());
+    UCFGtoProtobuf.toProtobufContainer(ucfgs, "target/loader_ranges.ucfgs");
+    UCFGtoProtobuf.toProtobufContainer(Collections.emptyList(), "target/loader_empty.ucfgs");
+    UCFGtoProtobuf.toProtobufFile(ucfg("single"), "target/loader_single.protobuf");
+    List<File> files = Arrays.asList(new File("target/loader_ranges.ucfgs"), new File("target/loader_empty.ucfgs"), new File("target/loader_single.protobuf"));
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      List<UCFGLoader.Result> results = new UCFGLoader(pool, 2, 3).load(files);
+      assertThat(results).extracting(UCFGLoader.Result::file)
+        .containsExactly(files.get(0), files.get(0), files.get(0), files.get(0), files.get(1), files.get(2));
+      assertThat(results).allMatch(UCFGLoader.Result::isSuccess);
+      assertThat(results.stream().map(UCFGLoader.Result::ucfgs).map(List::size)).containsExactly(3, 3, 3, 1, 0, 1);
+      assertThat(results.stream().limit(4).flatMap(r -> r.ucfgs().stream()).map(UCFG::methodId))
+        .containsExactly("c0", "c1", "c2", "c3", "c4", "c5", "c6", "c7", "c8", "c9");
+    } finally {
+      pool.shutdown();
+    }
+    files.forEach(File::delete);
+  }
+
+  @Test
+  void symbols_are_interned_with_the_interner_of_the_loader() throws Exception {
+    UCFGtoProtobuf.toProtobufFile(ucfg("method"), "target/loader_interned.protobuf");
+    UCFGtoProtobuf.toProtobufContainer(Arrays.asList(ucfg("c1"), ucfg("c2")), "target/loader_interned.ucfgs");
+    List<File> files = Arrays.asList(new File("target/loader_interned.protobuf"), new File("target/loader_interned.ucfgs"));
+    Interner arena = Interners.arena();
+    String callee = arena.intern(new String("callee"));
+
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      List<UCFGLoader.Result> results = new UCFGLoader(pool, 2).internWith(arena).load(files);
+      assertThat(results.stream().flatMap(r -> r.ucfgs().stream()).map(UCFGLoaderTest::calledMethod)).hasSize(3).allMatch(id -> id == callee);
+    } finally {
+      pool.shutdown();
+    }
+    files.forEach(File::delete);
+  }
+
+  private static String calledMethod(UCFG ucfg) {
+    return ((UCFGElement.AssignCall) ucfg.basicBlocks().values().iterator().next().instructions().get(0)).getMethodId();
+  }
+
+  @Test
+  void invalid_max_pending_files() {
+    assertThrows(IllegalArgumentException.class, () -> new UCFGLoader(ForkJoinPool.commonPool(), 0));
+  }
+
+  @Test
+  void invalid_ucfgs_per_task() {
+    assertThrows(IllegalArgumentException.class, () -> new UCFGLoader(ForkJoinPool.commonPool(), 1, 0));
+  }
+}
@@ -19,6 +19,10 @@
  */
 package org.sonar.ucfg;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.stream.Collectors;
 import org.sonar.ucfg.UCFG;
 import org.sonar.ucfg.UCFGBuilder;
 import org.sonar.ucfg.UCFGPrinter;
@@ -31,6 +35,7 @@ import static org.sonar.ucfg.UCFGBuilder.createLabel;
 import static org.sonar.ucfg.UCFGBuilder.newBasicBlock;
 import static org.sonar.ucfg.UCFGBuilder.variableWithId;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.sonar.ucfg.UCFGFixtures.allElements;
 
 class UCFGPrinterTest {
 
@@ -90,4 +95,41 @@ class UCFGPrinterTest {
         "         at 1:1 - 1:1\n" +
         "    jump 2");
   }
+
+  @Test
+  void print_same_as_elements_to_string() {
+    UCFG ucfg = allElements();
+    String expected = "Signature: A#m(I)V\nParameters:\n  #0 -> param\nInstructions:\n"
+      + ucfg.basicBlocks().values().stream().map(BasicBlock::toString).collect(Collectors.joining("\n"));
+    assertThat(new UCFGPrinter(ucfg).toString()).isEqualTo(expected);
+  }
+
+  @Test
+  void print_to_appendable_without_locations() throws IOException {
+    UCFG ucfg = allElements();
+    StringWriter writer = new StringWriter();
+    new UCFGPrinter(ucfg).omitLocations().print(writer);
+    assertThat(writer.toString())
+      .doesNotContain("fileKey")
+      .contains("  label 2:\n" +
+        "    call var = __id (FieldAccess _this_ field, FieldAccess ClassName:org.foo.A field, FieldAccess obj field)\n" +
+        "  FieldAccess ClassName:org.foo.A field = new org.foo.B\n" +
+        "     ret var");
+  }
+
+  @Test
+  void print_subgraph() {
+    UCFG ucfg = allElements();
+    assertThat(new UCFGPrinter(ucfg).omitLocations().onlyBlocks(Collections.singleton(createLabel("3"))).toString()).isEqualTo(
+      "Signature: A#m(I)V\n" +
+        "Parameters:\n" +
+        "  #0 -> param\n" +
+        "Instructions:\n" +
+        "  label 3:\n" +
+        "\n" +
+        "     ret \"\"");
+    String reachable = new UCFGPrinter(ucfg).reachableFrom(createLabel("2"), createLabel("unknown")).toString();
+    assertThat(reachable).contains("label 2:").doesNotContain("label 1:").doesNotContain("label 3:");
+  }
+
 }
@@ -0,0 +1,205 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import org.sonar.ucfg.protobuf.Ucfg;
+
+/**
+ * Converts a UCFG to a protobuf message tree through the generated builders, in the layout of
+ * {@link UCFGtoProtobuf#CURRENT_VERSION}. Used as an oracle for the bytes written by {@link UCFGProtobufWriter}.
+ */
+final class UCFGProtobufEncoder {
+
+  private final Map<String, Integer> stringRefs = new HashMap<>();
+  private final Ucfg.UCFG.Builder ucfgBuilder = Ucfg.UCFG.newBuilder();
+  private final boolean deltaLocations;
+  // location the next encoded location is relative to, when deltaLocations is set
+  private LocationInFile enclosingLocation = null;
+
+  private UCFGProtobufEncoder(boolean deltaLocations) {
+    this.deltaLocations = deltaLocations;
+  }
+
+  private Ucfg.UCFG encode(UCFG ucfg) {
+    LocationInFile location = ucfg.location();
+    if (location != null) {
+      ucfgBuilder.setLocation(toProtobuf(location));
+    }
+    ucfgBuilder
+      .setVersion(UCFGtoProtobuf.CURRENT_VERSION)
+      .setDeltaLocations(deltaLocations)
+      .setMethodIdRef(ref(ucfg.methodId()))
+      .addAllParameterRefs(ucfg.parameters().stream().map(p -> ref(p.id())).collect(Collectors.toList()))
+      .addAllEntries(ucfg.entryBlocks().stream().map(BasicBlock::label).map(Label::id).collect(Collectors.toList()))
+      .addAllBasicBlocks(ucfg.basicBlocks().values().stream().map(b -> toProtobuf(b, location)).collect(Collectors.toList()));
+    return ucfgBuilder.build();
+  }
+
+  private int ref(String string) {
+    Integer ref = stringRefs.get(string);
+    if (ref == null) {
+      ref = stringRefs.size();
+      stringRefs.put(string, ref);
+      ucfgBuilder.addStrings(string);
+    }
+    return ref;
+  }
+
+  private Ucfg.BasicBlock toProtobuf(BasicBlock basicBlock, @Nullable LocationInFile ucfgLocation) {
+    Ucfg.BasicBlock.Builder builder = Ucfg.BasicBlock.newBuilder().setId(basicBlock.label().id());
+    enclosingLocation = ucfgLocation;
+    LocationInFile location = basicBlock.locationInFile();
+    if (location != null) {
+      builder.setLocation(toProtobuf(location));
+      enclosingLocation = location;
+    }
+    builder.addAllInstructions(basicBlock.instructions().stream().map(i -> {
+        if (i.type() == UCFGElement.UCFGElementType.CALL) {
+          return toProtobuf((UCFGElement.AssignCall) i);
+        }
+        return toProtobuf((UCFGElement.NewObject) i);
+      }).collect(Collectors.toList()));
+
+    if (basicBlock.terminator().type() == UCFGElement.UCFGElementType.RET) {
+      UCFGElement.Ret ret = (UCFGElement.Ret) basicBlock.terminator();
+      Ucfg.Return.Builder retBuilder = Ucfg.Return.newBuilder().setReturnedExpression(toProtobuf(ret.getReturnedExpression()));
+      if (ret.location() != null) {
+        retBuilder.setLocation(toProtobuf(ret.location()));
+      }
+      builder.setRet(retBuilder);
+    } else {
+      Ucfg.Jump.Builder jump = Ucfg.Jump.newBuilder();
+      UCFGElement.Jump terminator = (UCFGElement.Jump) basicBlock.terminator();
+      jump.addAllDestinations(terminator.destinations().stream().map(Label::id).collect(Collectors.toList()));
+      builder.setJump(jump);
+    }
+    return builder.build();
+  }
+
+  private Ucfg.Instruction toProtobuf(UCFGElement.AssignCall assignCall) {
+    Ucfg.AssignCall.Builder builder = Ucfg.AssignCall.newBuilder()
+      .setMethodIdRef(ref(assignCall.getMethodId()))
+      .addAllArgs(assignCall.getArgExpressions().stream().map(this::toProtobuf).collect(Collectors.toList()));
+    if (assignCall.location() != null) {
+      builder.setLocation(toProtobuf(assignCall.location()));
+    }
+    Expression lhs = assignCall.getLhs();
+
+    if (lhs instanceof Expression.Variable) {
+      builder.setVariable(toProtobuf((Expression.Variable) lhs));
+    } else {
+      builder.setFieldAccess(toProtobuf((Expression.FieldAccess) lhs));
+    }
+    return Ucfg.Instruction.newBuilder().setAssigncall(builder.build()).build();
+  }
+
+  private Ucfg.Instruction toProtobuf(UCFGElement.NewObject newObject) {
+    Ucfg.NewObject.Builder builder = Ucfg.NewObject.newBuilder()
+      .setTypeRef(ref(newObject.instanceType()));
+    if (newObject.location() != null) {
+      builder.setLocation(toProtobuf(newObject.location()));
+    }
+
+    Expression lhs = newObject.getLhs();
+    if (lhs instanceof Expression.Variable) {
+      builder.setVariable(toProtobuf((Expression.Variable) lhs));
+    } else {
+      builder.setFieldAccess(toProtobuf((Expression.FieldAccess) lhs));
+    }
+    return Ucfg.Instruction.newBuilder().setNewObject(builder.build()).build();
+  }
+
+  private Ucfg.Expression toProtobuf(Expression expression) {
+    Ucfg.Expression.Builder builder = Ucfg.Expression.newBuilder();
+    if (expression.isConstant()) {
+      builder.setConst(toProtobuf((Expression.Constant) expression));
+    } else if(expression == Expression.THIS) {
+      builder.setThis(toProtobufThis());
+    } else if (expression instanceof Expression.ClassName) {
+      builder.setClassname(toProtobuf((Expression.ClassName) expression));
+    } else if (expression instanceof Expression.FieldAccess) {
+      builder.setFieldAccess(toProtobuf((Expression.FieldAccess) expression));
+    } else {
+      builder.setVar(toProtobuf((Expression.Variable) expression));
+    }
+    return builder.build();
+  }
+
+  private static Ucfg.Constant toProtobuf(Expression.Constant constant) {
+    return Ucfg.Constant.newBuilder().setValue(constant.value()).build();
+  }
+
+  private Ucfg.Variable toProtobuf(Expression.Variable variable) {
+    return Ucfg.Variable.newBuilder().setNameRef(ref(variable.id())).build();
+  }
+
+  private Ucfg.ClassName toProtobuf(Expression.ClassName className) {
+    return Ucfg.ClassName.newBuilder().setClassnameRef(ref(className.typeName())).build();
+  }
+
+  private static Ucfg.This toProtobufThis() {
+    return Ucfg.This.getDefaultInstance();
+  }
+
+  private Ucfg.FieldAccess toProtobuf(Expression.FieldAccess fieldAccess) {
+    Ucfg.FieldAccess.Builder fieldAccessBuilder = Ucfg.FieldAccess.newBuilder();
+    Expression object = fieldAccess.object();
+    if (object == Expression.THIS) {
+      fieldAccessBuilder.setThis(toProtobufThis());
+    } else if (object instanceof Expression.Variable) {
+      fieldAccessBuilder.setObject(toProtobuf((Expression.Variable) object));
+    } else {
+      fieldAccessBuilder.setClassname(toProtobuf((Expression.ClassName) object));
+    }
+    fieldAccessBuilder.setField(toProtobuf(fieldAccess.field()));
+    return fieldAccessBuilder.build();
+  }
+
+  private Ucfg.Location toProtobuf(LocationInFile locationInFile) {
+    if (deltaLocations && enclosingLocation != null) {
+      return Ucfg.Location.newBuilder()
+        .setDeltaFileIdRef(locationInFile.getFileId().equals(enclosingLocation.getFileId()) ? 0 : (ref(locationInFile.getFileId()) + 1))
+        .setDeltaStartLine(locationInFile.getStartLine() - enclosingLocation.getStartLine())
+        .setDeltaStartLineOffset(locationInFile.getStartLineOffset() - enclosingLocation.getStartLineOffset())
+        .setDeltaEndLine(locationInFile.getEndLine() - enclosingLocation.getEndLine())
+        .setDeltaEndLineOffset(locationInFile.getEndLineOffset() - enclosingLocation.getEndLineOffset())
+        .build();
+    }
+    return Ucfg.Location.newBuilder()
+      .setFileIdRef(ref(locationInFile.getFileId()))
+      .setStartLine(locationInFile.getStartLine())
+      .setStartLineOffset(locationInFile.getStartLineOffset())
+      .setEndLine(locationInFile.getEndLine())
+      .setEndLineOffset(locationInFile.getEndLineOffset())
+      .build();
+  }
+
+  static Ucfg.UCFG toProtobuf(UCFG ucfg) {
+    return toProtobuf(ucfg, false);
+  }
+
+  static Ucfg.UCFG toProtobuf(UCFG ucfg, boolean deltaLocations) {
+    return new UCFGProtobufEncoder(deltaLocations).encode(ucfg);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.sonar.ucfg.benchmark.SyntheticUCFGs;
+import org.sonar.ucfg.protobuf.Ucfg;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.sonar.ucfg.UCFGFixtures.allElements;
+import static org.sonar.ucfg.UCFGBuilder.call;
+import static org.sonar.ucfg.UCFGBuilder.constant;
+import static org.sonar.ucfg.UCFGBuilder.newBasicBlock;
+import static org.sonar.ucfg.UCFGBuilder.variableWithId;
+
+class UCFGProtobufWriterTest {
+
+  @Test
+  void same_bytes_as_protobuf_messages() throws IOException {
+    UCFGProtobufWriter writer = new UCFGProtobufWriter();
+    for (UCFG ucfg : Arrays.asList(allElements(), withoutLocations(), withSomeLocations(), SyntheticUCFGs.method("A#m()V", "fileKey", 20, 5))) {
+      assertThat(writer.toByteArray(ucfg, false)).isEqualTo(UCFGProtobufEncoder.toProtobuf(ucfg, false).toByteArray());
+      assertThat(writer.toByteArray(ucfg, true)).isEqualTo(UCFGProtobufEncoder.toProtobuf(ucfg, true).toByteArray());
+    }
+  }
+
+  @Test
+  void write_batch_of_delimited_ucfgs() throws IOException {
+    UCFGProtobufWriter writer = new UCFGProtobufWriter();
+    List<UCFG> ucfgs = Arrays.asList(allElements(), SyntheticUCFGs.method("A#big()V", "fileKey", 2000, 20), withoutLocations());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int written = 0;
+    for (UCFG ucfg : ucfgs) {
+      written += writer.writeDelimited(ucfg, true, out);
+    }
+    assertThat(out.size()).isEqualTo(written);
+
+    ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+    for (UCFG ucfg : ucfgs) {
+      UCFG read = UCFGtoProtobuf.fromProtobuf(Ucfg.UCFG.parseDelimitedFrom(in));
+      assertThat(read.methodId()).isEqualTo(ucfg.methodId());
+      assertThat(read.basicBlocks()).isEqualTo(ucfg.basicBlocks());
+    }
+    assertThat(in.available()).isZero();
+  }
+
+  private static UCFG withoutLocations() {
+    UCFGBuilder builder = UCFGBuilder.createUCFGForMethod("");
+    builder.addStartingBlock(newBasicBlock("1", null).assignTo(variableWithId("var"), call("A#f()V").withArgs(), null).ret(Expression.THIS));
+    return builder.build();
+  }
+
+  private static UCFG withSomeLocations() {
+    UCFGBuilder builder = UCFGBuilder.createUCFGForMethod("A#m()V").at(new LocationInFile("fileKey", 1, 0, 10, 1));
+    builder.addStartingBlock(newBasicBlock("1", null)
+      .assignTo(variableWithId("var"), call("A#f()V").withArgs(constant("")), null)
+      .newObject(variableWithId("obj"), "org.foo.B", new LocationInFile("fileKey", 2, 4, 2, 20))
+      .ret(variableWithId("var")));
+    return builder.build();
+  }
+}
@@ -19,9 +19,13 @@
  */
 package org.sonar.ucfg;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import org.junit.jupiter.api.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.sonar.ucfg.UCFGBuilder.call;
 import static org.sonar.ucfg.UCFGBuilder.constant;
 import static org.sonar.ucfg.UCFGBuilder.createLabel;
@@ -67,4 +71,111 @@ public class UCFGTest {
     assertThat(ucfg.basicBlocks().get(call).successors()).containsOnly(BasicBlock.DEAD_END.label());
   }
 
+  @Test
+  void redundant_blocks_resolve_to_all_reachable_non_redundant_blocks() {
+    // r1, r2 and r3 are a redundant loop reaching a and b, r4 and r5 a redundant loop reaching nothing
+    UCFGBuilder builder = createUCFGForMethod("foo").addMethodParam(variableWithId("arg0"));
+    builder.addStartingBlock(newBasicBlock("start").assignTo(variableWithId("var1"), call("signature").withArgs(variableWithId("arg0")))
+      .jumpTo(createLabel("r1"), createLabel("r4")));
+    builder.addBasicBlock(newBasicBlock("r1").jumpTo(createLabel("r2")));
+    builder.addBasicBlock(newBasicBlock("r2").jumpTo(createLabel("a"), createLabel("r3")));
+    builder.addBasicBlock(newBasicBlock("r3").jumpTo(createLabel("r1"), createLabel("b")));
+    builder.addBasicBlock(newBasicBlock("r4").jumpTo(createLabel("r5")));
+    builder.addBasicBlock(newBasicBlock("r5").jumpTo(createLabel("r4")));
+    builder.addBasicBlock(newBasicBlock("a").assignTo(variableWithId("var1"), call("signature").withArgs(variableWithId("arg0"))).jumpTo(createLabel("r3")));
+    builder.addBasicBlock(newBasicBlock("b").ret(constant("b")));
+
+    UCFG ucfg = builder.build();
+
+    assertThat(ucfg.basicBlocks().keySet()).containsOnly(createLabel("start"), createLabel("a"), createLabel("b"));
+    assertThat(ucfg.basicBlocks().get(createLabel("start")).successors()).containsOnly(createLabel("a"), createLabel("b"));
+    assertThat(ucfg.basicBlocks().get(createLabel("a")).successors()).containsOnly(createLabel("a"), createLabel("b"));
+  }
+
+  @Test
+  void long_chains_of_redundant_blocks() {
+    int length = 50_000;
+    // switch with a case per call, each case falling through chains of empty blocks
+    UCFGBuilder builder = createUCFGForMethod("foo").addMethodParam(variableWithId("arg0"));
+    Label[] cases = new Label[length];
+    for (int i = 0; i < length; i++) {
+      cases[i] = createLabel("call" + i);
+    }
+    builder.addStartingBlock(newBasicBlock("switch").assignTo(variableWithId("var1"), call("signature").withArgs(variableWithId("arg0")))
+      .jumpTo(cases));
+    for (int i = 0; i < length; i++) {
+      builder.addBasicBlock(newBasicBlock("call" + i).assignTo(variableWithId("var1"), call("signature").withArgs(variableWithId("arg0")))
+        .jumpTo(createLabel("empty" + i)));
+      builder.addBasicBlock(newBasicBlock("empty" + i).jumpTo(createLabel(i + 1 < length ? ("empty" + (i + 1)) : "exit")));
+    }
+    builder.addBasicBlock(newBasicBlock("exit").ret(constant("implicit return")));
+
+    UCFG ucfg = builder.build();
+
+    assertThat(ucfg.basicBlocks()).hasSize(length + 2);
+    assertThat(ucfg.basicBlocks().get(createLabel("call0")).successors()).containsExactly(createLabel("exit"));
+    assertThat(ucfg.basicBlocks().get(createLabel("call" + (length - 1))).successors()).containsExactly(createLabel("exit"));
+  }
+
+  @Test
+  void builder_drops_unreachable_blocks() {
+    UCFGBuilder builder = createUCFGForMethod("foo").addMethodParam(variableWithId("arg0"));
+    builder.addStartingBlock(newBasicBlock("start").jumpTo(createLabel("exit")));
+    builder.addBasicBlock(newBasicBlock("unreachable").assignTo(variableWithId("var1"), call("signature").withArgs(variableWithId("arg0")))
+      .jumpTo(createLabel("unreachableEmpty")));
+    builder.addBasicBlock(newBasicBlock("unreachableEmpty").jumpTo(createLabel("exit")));
+    builder.addBasicBlock(newBasicBlock("exit").ret(constant("implicit return")));
+
+    UCFG ucfg = builder.build();
+
+    assertThat(ucfg.entryBlocks().stream().map(BasicBlock::label)).containsOnly(createLabel("exit"));
+    assertThat(ucfg.basicBlocks().keySet()).containsOnly(createLabel("exit"));
+  }
+
+  @Test
+  void constructor_keeps_unreachable_blocks() {
+    BasicBlock exit = newBasicBlock("exit").ret(constant("implicit return")).build();
+    BasicBlock empty = newBasicBlock("empty").jumpTo(exit.label()).build();
+    BasicBlock unreachable = newBasicBlock("unreachable").assignTo(variableWithId("var1"), call("signature").withArgs(variableWithId("arg0")))
+      .jumpTo(empty.label()).build();
+
+    UCFG ucfg = new UCFG("foo", Collections.emptyList(), new HashSet<>(Arrays.asList(exit, empty, unreachable)), Collections.singleton(exit), UCFGBuilder.LOC);
+
+    assertThat(ucfg.basicBlocks().keySet()).containsOnly(exit.label(), unreachable.label());
+    assertThat(ucfg.basicBlocks().get(unreachable.label()).successors()).containsExactly(exit.label());
+    assertThat(unreachable.successors()).containsExactly(empty.label());
+  }
+
+  @Test
+  void duplicate_labels_are_rejected() {
+    UCFGBuilder builder = createUCFGForMethod("foo");
+    builder.addBasicBlock(newBasicBlock("exit").ret(constant("a")));
+    builder.addBasicBlock(newBasicBlock("exit").ret(constant("b")));
+    assertThatThrownBy(builder::build).isInstanceOf(IllegalStateException.class).hasMessage("Duplicate block label exit");
+  }
+
+  @Test
+  void ucfgs_are_immutable_and_do_not_share_dead_ends() {
+    UCFG first = ucfgWithRedundantLoop();
+    UCFG second = ucfgWithRedundantLoop();
+
+    BasicBlock deadEnd = first.basicBlocks().get(BasicBlock.DEAD_END.label());
+    assertThat(deadEnd).isEqualTo(BasicBlock.DEAD_END).isNotSameAs(BasicBlock.DEAD_END).isNotSameAs(second.basicBlocks().get(BasicBlock.DEAD_END.label()));
+    assertThat(first.exitBlocks()).containsExactly(deadEnd);
+    assertThatThrownBy(() -> first.basicBlocks().remove(deadEnd.label())).isInstanceOf(UnsupportedOperationException.class);
+    assertThatThrownBy(() -> first.entryBlocks().clear()).isInstanceOf(UnsupportedOperationException.class);
+    assertThatThrownBy(() -> first.parameters().clear()).isInstanceOf(UnsupportedOperationException.class);
+    assertThatThrownBy(() -> deadEnd.successors().clear()).isInstanceOf(UnsupportedOperationException.class);
+    BasicBlock entry = first.entryBlocks().iterator().next();
+    assertThat(entry).isSameAs(first.basicBlocks().get(entry.label()));
+    assertThatThrownBy(() -> entry.instructions().clear()).isInstanceOf(UnsupportedOperationException.class);
+  }
+
+  private static UCFG ucfgWithRedundantLoop() {
+    UCFGBuilder builder = createUCFGForMethod("foo").addMethodParam(variableWithId("arg0"));
+    builder.addBasicBlock(newBasicBlock("call").assignTo(variableWithId("var1"), call("signature").withArgs(variableWithId("arg0")))
+      .jumpTo(createLabel("loop")));
+    builder.addBasicBlock(newBasicBlock("loop").jumpTo(createLabel("loop")));
+    return builder.build();
+  }
 }
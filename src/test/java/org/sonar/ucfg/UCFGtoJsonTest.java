@@ -24,10 +24,15 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.networknt.schema.JsonSchema;
 import com.networknt.schema.JsonSchemaFactory;
 import com.networknt.schema.ValidationMessage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 import org.junit.jupiter.api.Test;
@@ -35,6 +40,8 @@ import org.junit.jupiter.api.Test;
 import static java.lang.reflect.Modifier.isFinal;
 import static java.lang.reflect.Modifier.isPrivate;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowable;
 import static org.assertj.core.api.Assertions.fail;
 import static org.sonar.ucfg.UCFGBuilder.clazz;
 import static org.sonar.ucfg.UCFGBuilder.constant;
@@ -45,8 +52,119 @@ import static org.sonar.ucfg.UCFGBuilder.variableWithId;
 class UCFGtoJsonTest {
   @Test
   void serialize_all_elements_in_ucfg() throws IOException {
+    String jsonString = UCFGtoJson.toJson(ucfg());
+    validateJsonString(jsonString);
+    assertThat(jsonString).isEqualTo(Files.readAllLines(new File("src/test/resources/serialized.json").toPath()).stream().collect(Collectors.joining("\n")));
+  }
+
+  @Test
+  void stream_compact_json() throws IOException {
+    UCFG ucfg = ucfg();
+    String compact = UCFGtoJson.toCompactJson(ucfg);
+    validateJsonString(compact);
+    assertThat(compact).doesNotContain("\n").doesNotContain(": ");
+    ObjectMapper mapper = new ObjectMapper();
+    assertThat(mapper.readTree(compact)).isEqualTo(mapper.readTree(UCFGtoJson.toJson(ucfg)));
+
+    StringBuilder appendable = new StringBuilder("previous content;");
+    UCFGtoJson.toJson(ucfg, appendable, true);
+    assertThat(appendable.toString()).isEqualTo("previous content;" + UCFGtoJson.toJson(ucfg));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    UCFGtoJson.toJson(ucfg, out, false);
+    assertThat(new String(out.toByteArray(), StandardCharsets.UTF_8)).isEqualTo(compact);
+  }
+
+  @Test
+  void read_json() throws IOException {
+    UCFG ucfg = ucfg();
+    for (String json : new String[] {UCFGtoJson.toJson(ucfg), UCFGtoJson.toCompactJson(ucfg)}) {
+      UCFG read = UCFGtoJson.fromJson(json);
+      assertThat(read.methodId()).isEqualTo(ucfg.methodId());
+      assertThat(read.parameters()).isEqualTo(ucfg.parameters());
+      assertThat(read.location()).isEqualTo(ucfg.location());
+      assertThat(read.entryBlocks()).isEqualTo(ucfg.entryBlocks());
+      assertThat(read.basicBlocks()).isEqualTo(ucfg.basicBlocks());
+      assertThat(UCFGtoJson.toJson(read)).isEqualTo(UCFGtoJson.toJson(ucfg));
+    }
+
+    UCFG withThis = UCFGBuilder.createUCFGForMethod("A#m<T>()V")
+      .addStartingBlock(newBasicBlock("1", null)
+        .assignTo(fieldAccess(variableWithId("f")), UCFGBuilder.call("__id").withArgs(Expression.THIS, constant("<\"quoted\">")), null)
+        .ret(Expression.THIS))
+      .build();
+    UCFG read = UCFGtoJson.fromJson(new StringReader(UCFGtoJson.toJson(withThis)));
+    assertThat(read.location()).isEqualTo(withThis.location());
+    assertThat(read.basicBlocks()).isEqualTo(withThis.basicBlocks());
+  }
+
+  @Test
+  void read_json_members_in_any_order() {
+    UCFG ucfg = UCFGtoJson.fromJson("{\"ucfgBody\": [{\"bbTerm\": {\"retExpr\": {\"varName\": \"p\", \"tag\": \"Var\"}, \"tag\": \"Ret\"},"
+      + " \"bbInstr\": [{\"instrArgs\": [null], \"instrMeth\": \"A#f()V\", \"instrLhs\": {\"varName\": \"v\", \"tag\": \"Var\"}}], \"bbId\": \"1\"}],"
+      + " \"unknown\": {\"a\": [1, 2]}, \"ucfgParams\": [\"p\"], \"ucfgEntries\": [\"1\"], \"ucfgId\": \"A#m()V\"}");
+    assertThat(ucfg.methodId()).isEqualTo("A#m()V");
+    assertThat(ucfg.parameters()).containsExactly(variableWithId("p"));
+    BasicBlock block = ucfg.entryBlocks().iterator().next();
+    assertThat(block.locationInFile()).isNull();
+    assertThat(block.instructions()).containsExactly(new UCFGElement.AssignCall(null, variableWithId("v"), "A#f()V", Collections.singletonList(Expression.THIS)));
+    assertThat(block.terminator()).isEqualTo(new UCFGElement.Ret(null, variableWithId("p")));
+  }
+
+  @Test
+  void read_invalid_json() {
+    assertThatThrownBy(() -> UCFGtoJson.fromJson("{\"ucfgId\": ")).isInstanceOf(IllegalStateException.class).hasCauseInstanceOf(IOException.class);
+    assertThatThrownBy(() -> UCFGtoJson.fromJson("{\"ucfgId\": \"A#m()V\", \"ucfgBody\": [{\"bbId\": \"1\", \"bbTerm\": {\"tag\": \"Goto\"}}]}"))
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessage("An error occured while deserializing UCFG from JSON at $.ucfgBody[0].bbTerm")
+      .hasCauseInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  void read_json_not_describing_a_ucfg() {
+    String ret = "\"bbTerm\": {\"tag\": \"Ret\", \"retExpr\": {\"tag\": \"Const\", \"constValue\": \"\\\"c\\\"\"}}";
+    assertInvalid("{\"ucfgId\": \"A#m()V\", \"ucfgBody\": [{\"bbId\": \"1\", \"bbInstr\": [{\"instrLhs\": null, \"instrMeth\": \"f\"}], " + ret + "}]}",
+      "$.ucfgBody[0].bbInstr[1]", "Expected a variable or a field access as instrLhs but was: _this_");
+    assertInvalid("{\"ucfgId\": \"A#m()V\", \"ucfgBody\": [{\"bbId\": \"1\", \"bbInstr\": [{\"instrMeth\": \"f\"}], " + ret + "}]}",
+      "$.ucfgBody[0].bbInstr[1]", "Missing member instrLhs");
+    assertInvalid("{\"ucfgId\": \"A#m()V\", \"ucfgBody\": [{\"bbId\": \"1\", \"bbInstr\": [{\"tag\": \"NewObject\", \"newObjectType\": \"A\"}], " + ret + "}]}",
+      "$.ucfgBody[0].bbInstr[1]", "Missing member newObjectLhs");
+    assertInvalid("{\"ucfgId\": \"A#m()V\", \"ucfgBody\": [{\"bbId\": \"1\", \"bbInstr\": [{\"instrLhs\": {\"tag\": \"Const\", \"constValue\": \"c\"}, "
+      + "\"instrMeth\": \"f\"}], " + ret + "}]}",
+      "$.ucfgBody[0].bbInstr[1]", "Expected a variable or a field access as instrLhs but was: \"c\"");
+    assertInvalid("{\"ucfgId\": \"A#m()V\", \"ucfgBody\": [{\"bbId\": \"1\", \"bbTerm\": {\"tag\": \"Ret\", \"retExpr\": "
+      + "{\"tag\": \"FieldAccess\", \"fieldAccessField\": {\"tag\": \"ClassName\", \"classNameType\": \"A\"}}}}]}",
+      "$.ucfgBody[0].bbTerm.retExpr", "Expected a variable as fieldAccessField but was: ClassName:A");
+    assertInvalid("{\"ucfgId\": \"A#m()V\", \"ucfgBody\": [{\"bbId\": \"1\", \"bbTerm\": {\"tag\": \"Ret\", \"retExpr\": "
+      + "{\"tag\": \"FieldAccess\", \"fieldAccessObject\": {\"tag\": \"Const\", \"constValue\": \"c\"}, \"fieldAccessField\": {\"tag\": \"Var\", \"varName\": \"f\"}}}}]}",
+      "$.ucfgBody[0].bbTerm.retExpr", "Expected a variable or a class name as fieldAccessObject but was: \"c\"");
+    assertInvalid("{\"ucfgId\": \"A#m()V\", \"ucfgBody\": [{\"bbId\": \"1\", \"bbInstr\": [{\"tag\": \"NewObj\", \"newObjectLhs\": "
+      + "{\"tag\": \"Var\", \"varName\": \"v\"}, \"newObjectType\": \"A\"}], " + ret + "}]}",
+      "$.ucfgBody[0].bbInstr[1]", "Unknown instruction: NewObj");
+    assertInvalid("{\"ucfgBody\": [{\"bbId\": \"1\", " + ret + "}]}", "$", "Missing member ucfgId");
+    assertInvalid("{\"ucfgId\": \"A#m()V\", \"ucfgBody\": [{\"bbId\": \"1\", \"bbTerm\": {\"tag\": \"Jump\", \"jumpDest\": [\"2\"]}}]}",
+      "$", "No basic block with label 2");
+  }
+
+  @Test
+  void read_calls_with_or_without_tag() {
+    String json = "{\"ucfgId\": \"A#m()V\", \"ucfgBody\": [{\"bbId\": \"1\", \"bbInstr\": ["
+      + "{\"tag\": \"AssignCall\", \"instrLhs\": {\"tag\": \"Var\", \"varName\": \"v\"}, \"instrMeth\": \"f\", \"instrArgs\": []},"
+      + "{\"instrLhs\": {\"tag\": \"Var\", \"varName\": \"v\"}, \"instrMeth\": \"g\", \"instrArgs\": []}], "
+      + "\"bbTerm\": {\"tag\": \"Ret\", \"retExpr\": {\"tag\": \"Var\", \"varName\": \"v\"}}}]}";
+    List<UCFGElement.Instruction> instructions = UCFGtoJson.fromJson(json).basicBlocks().get(UCFGBuilder.createLabel("1")).instructions();
+    assertThat(instructions).extracting(i -> ((UCFGElement.AssignCall) i).getMethodId()).containsExactly("f", "g");
+  }
+
+  private static void assertInvalid(String json, String path, String causeMessage) {
+    Throwable thrown = catchThrowable(() -> UCFGtoJson.fromJson(json));
+    assertThat(thrown).isInstanceOf(IllegalStateException.class).hasMessage("An error occured while deserializing UCFG from JSON at " + path);
+    assertThat(thrown.getCause()).isInstanceOfAny(IllegalStateException.class, IllegalArgumentException.class).hasMessage(causeMessage);
+  }
+
+  private static UCFG ucfg() {
     Expression.Variable arg = variableWithId("arg");
-    UCFG ucfg = UCFGBuilder.createUCFGForMethod("A#method(Ljava/lang/String;)Ljava/lang/String;").addMethodParam(arg)
+    return UCFGBuilder.createUCFGForMethod("A#method(Ljava/lang/String;)Ljava/lang/String;").addMethodParam(arg)
       .addStartingBlock(newBasicBlock("1")
         .assignTo(variableWithId("var1"), UCFGBuilder.call("fun").withArgs(arg))
         .jumpTo(UCFGBuilder.createLabel("2"), UCFGBuilder.createLabel("3"), UCFGBuilder.createLabel("4"), UCFGBuilder.createLabel("5")))
@@ -64,9 +182,6 @@ class UCFGtoJsonTest {
         .assignTo(variableWithId("var5"), UCFGBuilder.call("org.foo.A#init()V").withArgs(variableWithId("var5")))
         .ret(constant("This is the end; My only friend; The end"), new LocationInFile("fileKey", 4, 2, 4, 10)))
       .build();
-    String jsonString = UCFGtoJson.toJson(ucfg);
-    validateJsonString(jsonString);
-    assertThat(jsonString).isEqualTo(Files.readAllLines(new File("src/test/resources/serialized.json").toPath()).stream().collect(Collectors.joining("\n")));
   }
 
   private void validateJsonString(String json) throws IOException {
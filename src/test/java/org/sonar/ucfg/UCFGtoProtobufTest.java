@@ -22,13 +22,23 @@ package org.sonar.ucfg;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
+import org.sonar.ucfg.benchmark.SyntheticUCFGs;
 import org.sonar.ucfg.protobuf.Ucfg;
+import org.sonar.ucfg.util.Interner;
+import org.sonar.ucfg.util.Interners;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.fail;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.sonar.ucfg.UCFGBuilder.call;
 import static org.sonar.ucfg.UCFGBuilder.clazz;
 import static org.sonar.ucfg.UCFGBuilder.constant;
@@ -89,6 +99,324 @@ class UCFGtoProtobufTest {
     file.delete();
   }
 
+  @Test
+  void stream_ucfg_files() throws IOException {
+    File directory = new File("target/ucfg_stream");
+    directory.mkdirs();
+    List<File> files = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      String filename = String.format("target/ucfg_stream/ucfg_%02d.protobuf", i);
+      UCFGtoProtobuf.toProtobufFile(UCFGBuilder.createUCFGForMethod("method" + i)
+        .addBasicBlock(newBasicBlock("start").assignTo(variableWithId("var"), call("callee" + i).withArgs()).ret(variableWithId("var")))
+        .build(), filename);
+      files.add(new File(filename));
+    }
+    List<String> expectedIds = IntStream.range(0, 20).mapToObj(i -> "method" + i).collect(Collectors.toList());
+
+    assertThat(UCFGtoProtobuf.streamProtobufFiles(files).map(UCFG::methodId)).containsExactlyElementsOf(expectedIds);
+    assertThat(UCFGtoProtobuf.streamProtobufDirectory(directory).map(UCFG::methodId)).containsExactlyElementsOf(expectedIds);
+    assertThat(UCFGtoProtobuf.streamProtobufFiles(files).parallel().map(UCFG::methodId).collect(Collectors.toList())).containsExactlyElementsOf(expectedIds);
+
+    // early termination: the last file is corrupted but never read
+    File corrupted = new File("target/ucfg_corrupted.protobuf");
+    Files.write(corrupted.toPath(), new byte[] {42, 42, 42});
+    List<File> withCorrupted = new ArrayList<>(files);
+    withCorrupted.add(corrupted);
+    assertThat(UCFGtoProtobuf.streamProtobufFiles(withCorrupted).filter(u -> u.methodId().equals("method3")).findFirst()).isPresent();
+    assertThrows(IllegalStateException.class, () -> UCFGtoProtobuf.streamProtobufFiles(withCorrupted).collect(Collectors.toList()));
+    assertThrows(UncheckedIOException.class, () -> UCFGtoProtobuf.streamProtobufFiles(Collections.singletonList(new File("target/ucfg_stream/unknown"))).collect(Collectors.toList()));
+
+    withCorrupted.forEach(File::delete);
+    directory.delete();
+  }
+
+  @Test
+  void symbols_are_interned_when_deserializing() throws IOException {
+    UCFG ucfg = UCFGBuilder.createUCFGForMethod("method")
+      .addBasicBlock(newBasicBlock("start", new LocationInFile("fileKey", 1, 1, 1, 2))
+        .assignTo(variableWithId("var"), call("callee").withArgs(variableWithId("var")), new LocationInFile("fileKey", 2, 1, 2, 2))
+        .newObject(variableWithId("var"), "org.foo.A", new LocationInFile("fileKey", 3, 1, 3, 2))
+        .assignTo(variableWithId("var"), call("callee").withArgs(clazz("org.foo.A")), new LocationInFile("fileKey", 4, 1, 4, 2))
+        .ret(variableWithId("var")))
+      .build();
+    String filename = "target/interned_ucfg.protobuf";
+    UCFGtoProtobuf.toProtobufFile(ucfg, filename);
+    try {
+      Interner arena = Interners.arena();
+      UCFG read = UCFGtoProtobuf.fromProtobufFile(new File(filename), arena);
+      List<UCFGElement.Instruction> instructions = read.basicBlocks().values().iterator().next().instructions();
+      UCFGElement.AssignCall first = (UCFGElement.AssignCall) instructions.get(0);
+      UCFGElement.NewObject newObject = (UCFGElement.NewObject) instructions.get(1);
+      UCFGElement.AssignCall second = (UCFGElement.AssignCall) instructions.get(2);
+      assertThat(first.getMethodId()).isSameAs(second.getMethodId());
+      assertThat(first.location().getFileId()).isSameAs(second.location().getFileId()).isSameAs(newObject.location().getFileId());
+      assertThat(((Expression.Variable) first.getLhs()).id()).isSameAs(((Expression.Variable) first.getArgExpressions().get(0)).id());
+      assertThat(newObject.instanceType()).isSameAs(((Expression.ClassName) second.getArgExpressions().get(0)).typeName());
+
+      // symbols are shared between UCFGs read with the same interner only
+      assertThat(UCFGtoProtobuf.fromProtobufFile(new File(filename), arena).methodId()).isSameAs(read.methodId());
+      assertThat(UCFGtoProtobuf.fromProtobufFile(new File(filename), Interners.arena()).methodId()).isNotSameAs(read.methodId());
+      assertThat(UCFGtoProtobuf.fromProtobufFile(new File(filename)).methodId()).isNotSameAs(read.methodId());
+    } finally {
+      new File(filename).delete();
+    }
+  }
+
+  @Test
+  void every_reader_interns_with_the_given_interner() throws IOException {
+    UCFG ucfg = UCFGBuilder.createUCFGForMethod("method")
+      .addBasicBlock(newBasicBlock("start").assignTo(variableWithId("var"), call("callee").withArgs(variableWithId("var"))).ret(variableWithId("var")))
+      .build();
+    File file = new File("target/interned_readers.protobuf");
+    File container = new File("target/interned_readers.ucfgs");
+    UCFGtoProtobuf.toProtobufFile(ucfg, file.getPath());
+    UCFGtoProtobuf.toProtobufContainer(Collections.singletonList(ucfg), container.getPath());
+    try {
+      Interner arena = Interners.arena();
+      String methodId = arena.intern(new String("method"));
+      HashConsingFactory factory = new HashConsingFactory();
+      UCFG withFactory = UCFGtoProtobuf.fromProtobufFile(file, arena, factory);
+      assertThat(withFactory.methodId()).isSameAs(methodId);
+      assertThat(withFactory.parameters()).isEmpty();
+      UCFGElement.AssignCall call = (UCFGElement.AssignCall) withFactory.basicBlocks().values().iterator().next().instructions().get(0);
+      assertThat(call.getLhs()).isSameAs(factory.variableWithId("var"));
+
+      assertThat(UCFGtoProtobuf.fromProtobufFileMapped(file, arena).methodId()).isSameAs(methodId);
+      assertThat(UCFGtoProtobuf.fromProtobufFileLazily(file, arena).methodId()).isSameAs(methodId);
+      assertThat(UCFGtoProtobuf.fromProtobufContainer(container, arena).get(0).methodId()).isSameAs(methodId);
+      try (Stream<UCFG> stream = UCFGtoProtobuf.streamProtobufContainer(container, arena)) {
+        assertThat(stream.map(UCFG::methodId)).allMatch(id -> id == methodId);
+      }
+      assertThat(UCFGtoProtobuf.streamProtobufFiles(Collections.singletonList(file), arena).map(UCFG::methodId)).allMatch(id -> id == methodId);
+      try (UCFGContainerReader reader = UCFGContainerReader.openMapped(container, arena)) {
+        assertThat(reader.read("method").methodId()).isSameAs(methodId);
+      }
+    } finally {
+      file.delete();
+      container.delete();
+    }
+  }
+
+  @Test
+  void hash_consing_when_deserializing() throws IOException {
+    LocationInFile location = new LocationInFile("fileKey", 1, 1, 1, 2);
+    UCFG ucfg = UCFGBuilder.createUCFGForMethod("method")
+      .addBasicBlock(newBasicBlock("start", location)
+        .assignTo(variableWithId("var"), call("callee").withArgs(variableWithId("var"), constant("c")), location)
+        .assignTo(fieldAccess(variableWithId("var"), variableWithId("f")), call("__id").withArgs(fieldAccess(variableWithId("var"), variableWithId("f")), constant("c")), location)
+        .ret(variableWithId("var"), location))
+      .build();
+    String filename = "target/hash_consed_ucfg.protobuf";
+    UCFGtoProtobuf.toProtobufFile(ucfg, filename);
+    HashConsingFactory factory = new HashConsingFactory();
+    BasicBlock block = UCFGtoProtobuf.fromProtobufFile(new File(filename), factory).basicBlocks().values().iterator().next();
+    assertThat(block.instructions()).containsExactlyElementsOf(ucfg.basicBlocks().values().iterator().next().instructions());
+    UCFGElement.AssignCall first = (UCFGElement.AssignCall) block.instructions().get(0);
+    UCFGElement.AssignCall second = (UCFGElement.AssignCall) block.instructions().get(1);
+    assertThat(first.getLhs()).isSameAs(first.getArgExpressions().get(0)).isSameAs(factory.variableWithId("var"));
+    assertThat(first.getArgExpressions().get(1)).isSameAs(second.getArgExpressions().get(1));
+    assertThat(second.getLhs()).isSameAs(second.getArgExpressions().get(0));
+    assertThat(first.location()).isSameAs(second.location()).isSameAs(block.locationInFile()).isSameAs(block.terminator().location());
+    assertThat(UCFGtoProtobuf.fromProtobufFile(new File(filename), factory).basicBlocks().values().iterator().next().instructions().get(0).location())
+      .isSameAs(first.location());
+    new File(filename).delete();
+  }
+
+  @Test
+  void strings_are_written_once_in_string_table() {
+    LocationInFile location = new LocationInFile("/absolute/path/to/file", 1, 1, 1, 2);
+    UCFG ucfg = UCFGBuilder.createUCFGForMethod("method").at(location)
+      .addBasicBlock(newBasicBlock("start", location)
+        .assignTo(variableWithId("var"), call("callee").withArgs(variableWithId("var")), location)
+        .assignTo(variableWithId("var"), call("callee").withArgs(clazz("var")), location)
+        .ret(variableWithId("var"), location))
+      .build();
+    Ucfg.UCFG protobuf = UCFGProtobufEncoder.toProtobuf(ucfg);
+    assertThat(protobuf.getVersion()).isEqualTo(2);
+    assertThat(protobuf.getStringsList()).containsExactlyInAnyOrder("method", "/absolute/path/to/file", "var", "callee");
+    assertThat(protobuf.getMethodId()).isEmpty();
+    assertThat(UCFGtoProtobuf.methodId(protobuf)).isEqualTo("method");
+  }
+
+  @Test
+  void delta_encoded_locations() throws IOException {
+    UCFG ucfg = UCFGBuilder.createUCFGForMethod("method").at(new LocationInFile("fileKey", 10, 2, 30, 1))
+      .addStartingBlock(newBasicBlock("start", null)
+        .assignTo(variableWithId("var"), call("callee").withArgs(), new LocationInFile("fileKey", 11, 4, 11, 20))
+        .jumpTo(createLabel("other")))
+      .addBasicBlock(newBasicBlock("other", new LocationInFile("fileKey", 12, 2, 15, 3))
+        .assignTo(variableWithId("var"), call("callee").withArgs(), new LocationInFile("fileKey", 13, 4, 13, 20))
+        .newObject(variableWithId("var"), "org.foo.A", new LocationInFile("otherFile", 1, 0, 1, 10))
+        .ret(variableWithId("var"), new LocationInFile("fileKey", 5, 0, 40, 0)))
+      .build();
+    String filename = "target/delta_locations.protobuf";
+    UCFGtoProtobuf.toProtobufFile(ucfg, filename, true);
+    UCFG read = UCFGtoProtobuf.fromProtobufFile(new File(filename));
+    assertThat(read.location()).isEqualTo(ucfg.location());
+    for (BasicBlock block : ucfg.basicBlocks().values()) {
+      BasicBlock readBlock = read.basicBlocks().get(block.label());
+      assertThat(readBlock.locationInFile()).isEqualTo(block.locationInFile());
+      assertThat(readBlock.instructions()).containsExactlyElementsOf(block.instructions());
+      assertThat(readBlock.terminator()).isEqualTo(block.terminator());
+    }
+    new File(filename).delete();
+  }
+
+  @Test
+  void delta_encoded_locations_are_smaller() {
+    UCFG ucfg = SyntheticUCFGs.method("method", "/home/user/project/src/main/java/org/foo/A.java", 20, 10);
+    Ucfg.UCFG delta = UCFGProtobufEncoder.toProtobuf(ucfg, true);
+    Ucfg.UCFG absolute = UCFGProtobufEncoder.toProtobuf(ucfg, false);
+    assertThat(delta.getDeltaLocations()).isTrue();
+    assertThat(delta.getSerializedSize()).isLessThan(absolute.getSerializedSize());
+  }
+
+  @Test
+  void lazy_deserialization() throws IOException {
+    UCFG ucfg = SyntheticUCFGs.method("method", "fileKey", 5, 3);
+    String filename = "target/lazy.protobuf";
+    UCFGtoProtobuf.toProtobufFile(ucfg, filename);
+    UCFG lazy = UCFGtoProtobuf.fromProtobufFileLazily(new File(filename));
+    assertThat(lazy.methodId()).isEqualTo("method");
+    assertThat(lazy.location()).isEqualTo(ucfg.location());
+    assertThat(lazy.parameters()).containsExactlyElementsOf(ucfg.parameters());
+    assertThat(lazy.entryBlocks()).containsExactlyElementsOf(ucfg.entryBlocks());
+    assertThat(lazy.basicBlocks().keySet()).containsExactlyInAnyOrderElementsOf(ucfg.basicBlocks().keySet());
+    assertThat(lazy.basicBlocks()).isSameAs(lazy.basicBlocks());
+    for (BasicBlock block : ucfg.basicBlocks().values()) {
+      assertThat(lazy.basicBlocks().get(block.label()).instructions()).containsExactlyElementsOf(block.instructions());
+    }
+    new File(filename).delete();
+  }
+
+  @Test
+  void lazy_deserialization_only_decodes_blocks_on_access() throws IOException {
+    Ucfg.UCFG.Builder builder = Ucfg.UCFG.newBuilder().setMethodId("someMethodId.wrong").addParameters("p")
+      .setLocation(Ucfg.Location.newBuilder().setFileId("fileKey").setStartLine(1));
+    builder.addBasicBlocks(builder.addBasicBlocksBuilder());
+    String filename = "target/lazy_wrong.protobuf";
+    try (FileOutputStream fos = new FileOutputStream(filename)) {
+      builder.build().writeTo(fos);
+    }
+    UCFG lazy = UCFGtoProtobuf.fromProtobufFileLazily(new File(filename));
+    assertThat(lazy.methodId()).isEqualTo("someMethodId.wrong");
+    assertThat(lazy.parameters()).containsExactly(variableWithId("p"));
+    assertThat(lazy.location()).isEqualTo(new LocationInFile("fileKey", 1, 0, 0, 0));
+    IllegalStateException e = assertThrows(IllegalStateException.class, lazy::basicBlocks);
+    assertThat(e).hasMessage("An error occured while deserializing UCFG for method someMethodId.wrong");
+    new File(filename).delete();
+  }
+
+  @Test
+  void scan_method_id_location_and_callees() throws IOException {
+    UCFG ucfg = UCFGBuilder.createUCFGForMethod("method").at(new LocationInFile("fileKey", 1, 2, 3, 4))
+      .addStartingBlock(newBasicBlock("start", new LocationInFile("fileKey", 1, 2, 1, 4))
+        .assignTo(variableWithId("var"), call("callee1").withArgs(variableWithId("var")))
+        .newObject(variableWithId("var"), "org.foo.A")
+        .assignTo(fieldAccess(variableWithId("var")), call("__id").withArgs(variableWithId("var")))
+        .jumpTo(createLabel("end")))
+      .addBasicBlock(newBasicBlock("end")
+        .assignTo(variableWithId("var"), call("callee2").withArgs(constant("c")))
+        .assignTo(variableWithId("var"), call("callee1").withArgs())
+        .ret(variableWithId("var")))
+      .build();
+    for (boolean deltaLocations : new boolean[] {false, true}) {
+      String filename = "target/scan.protobuf";
+      UCFGtoProtobuf.toProtobufFile(ucfg, filename, deltaLocations);
+      UCFGSummary summary = UCFGtoProtobuf.scanProtobufFile(new File(filename));
+      assertThat(summary.methodId()).isEqualTo("method");
+      assertThat(summary.location()).isEqualTo(new LocationInFile("fileKey", 1, 2, 3, 4));
+      assertThat(summary.callees()).containsExactlyInAnyOrder("callee1", "callee2", "__id");
+      new File(filename).delete();
+    }
+  }
+
+  @Test
+  void scan_error() throws IOException {
+    File file = new File("target/scan_corrupted.protobuf");
+    Files.write(file.toPath(), new byte[] {42, 42, 42});
+    IllegalStateException e = assertThrows(IllegalStateException.class, () -> UCFGtoProtobuf.scanProtobufFile(file));
+    assertThat(e).hasMessage("An error occured while scanning UCFG");
+    file.delete();
+  }
+
+  @Test
+  void memory_mapped_deserialization() throws IOException {
+    UCFG ucfg = SyntheticUCFGs.method("method", "fileKey", 5, 3);
+    String filename = "target/mapped.protobuf";
+    UCFGtoProtobuf.toProtobufFile(ucfg, filename);
+    UCFG mapped = UCFGtoProtobuf.fromProtobufFileMapped(new File(filename));
+    assertThat(mapped.methodId()).isEqualTo("method");
+    assertThat(mapped.basicBlocks().values().stream().map(BasicBlock::toString))
+      .containsExactlyInAnyOrderElementsOf(ucfg.basicBlocks().values().stream().map(BasicBlock::toString).collect(Collectors.toList()));
+
+    new File(filename).delete();
+
+    File corrupted = new File("target/mapped_corrupted.protobuf");
+    Files.write(corrupted.toPath(), new byte[] {42, 42, 42});
+    assertThrows(IllegalStateException.class, () -> UCFGtoProtobuf.fromProtobufFileMapped(corrupted));
+    corrupted.delete();
+  }
+
+  @Test
+  void read_version_1_layout() throws IOException {
+    Ucfg.Location location = Ucfg.Location.newBuilder().setFileId("fileKey").setStartLine(1).setStartLineOffset(2).setEndLine(3).setEndLineOffset(4).build();
+    Ucfg.Variable var = Ucfg.Variable.newBuilder().setName("var").build();
+    Ucfg.UCFG protobuf = Ucfg.UCFG.newBuilder()
+      .setMethodId("method")
+      .setLocation(location)
+      .addParameters("param")
+      .addEntries("start")
+      .addBasicBlocks(Ucfg.BasicBlock.newBuilder()
+        .setId("start")
+        .setLocation(Ucfg.Location.getDefaultInstance())
+        .addInstructions(Ucfg.Instruction.newBuilder().setAssigncall(Ucfg.AssignCall.newBuilder()
+          .setLocation(location)
+          .setVariable(var)
+          .setMethodId("callee")
+          .addArgs(Ucfg.Expression.newBuilder().setClassname(Ucfg.ClassName.newBuilder().setClassname("org.foo.A")))))
+        .addInstructions(Ucfg.Instruction.newBuilder().setNewObject(Ucfg.NewObject.newBuilder()
+          .setLocation(location)
+          .setVariable(var)
+          .setType("org.foo.B")))
+        .setRet(Ucfg.Return.newBuilder().setLocation(location).setReturnedExpression(Ucfg.Expression.newBuilder().setVar(var))))
+      .build();
+    String filename = "target/version1.protobuf";
+    try (FileOutputStream fos = new FileOutputStream(filename)) {
+      protobuf.writeTo(fos);
+    }
+    UCFG ucfg = UCFGtoProtobuf.fromProtobufFile(new File(filename));
+    LocationInFile expectedLocation = new LocationInFile("fileKey", 1, 2, 3, 4);
+    UCFG lazy = UCFGtoProtobuf.fromProtobufFileLazily(new File(filename));
+    assertThat(lazy.methodId()).isEqualTo("method");
+    assertThat(lazy.location()).isEqualTo(expectedLocation);
+    assertThat(lazy.parameters()).containsExactly(variableWithId("param"));
+    UCFGSummary summary = UCFGtoProtobuf.scanProtobufFile(new File(filename));
+    assertThat(summary.methodId()).isEqualTo("method");
+    assertThat(summary.location()).isEqualTo(expectedLocation);
+    assertThat(summary.callees()).containsExactly("callee");
+    assertThat(ucfg.methodId()).isEqualTo("method");
+    assertThat(ucfg.location()).isEqualTo(expectedLocation);
+    assertThat(ucfg.parameters()).containsExactly(variableWithId("param"));
+    BasicBlock block = ucfg.basicBlocks().get(createLabel("start"));
+    assertThat(block.locationInFile()).isNull();
+    assertThat(block.instructions()).containsExactly(
+      new UCFGElement.AssignCall(expectedLocation, variableWithId("var"), "callee", Collections.singletonList(clazz("org.foo.A"))),
+      new UCFGElement.NewObject(expectedLocation, variableWithId("var"), "org.foo.B"));
+    assertThat(block.terminator()).isEqualTo(new UCFGElement.Ret(expectedLocation, variableWithId("var")));
+    new File(filename).delete();
+  }
+
+  @Test
+  void unsupported_version() throws IOException {
+    String filename = "target/version_unknown.protobuf";
+    try (FileOutputStream fos = new FileOutputStream(filename)) {
+      Ucfg.UCFG.newBuilder().setVersion(42).setMethodId("method").build().writeTo(fos);
+    }
+    IllegalStateException e = assertThrows(IllegalStateException.class, () -> UCFGtoProtobuf.fromProtobufFile(new File(filename)));
+    assertThat(e.getCause()).hasMessage("Unsupported UCFG version 42");
+    new File(filename).delete();
+  }
 
   @Test
   void error_when_deserializing() throws IOException {
@@ -0,0 +1,82 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.sonar.ucfg.UCFG;
+import org.sonar.ucfg.UCFGtoProtobuf;
+
+/**
+ * Compares decoding of UCFG files written with absolute and with delta-encoded locations.
+ * File sizes of both encodings are printed by {@link #main(String[])} before running the benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocationEncodingBenchmark {
+
+  @Param({"false", "true"})
+  public boolean deltaLocations;
+
+  private File file;
+
+  @Setup
+  public void setup() throws IOException {
+    file = write(deltaLocations);
+  }
+
+  private static File write(boolean deltaLocations) throws IOException {
+    UCFG ucfg = SyntheticUCFGs.method("org.foo.A#method(Ljava/lang/String;)V", "/home/user/projects/big/src/main/java/org/foo/A.java", 200, 10);
+    File file = File.createTempFile("ucfg-location-" + deltaLocations, ".protobuf");
+    file.deleteOnExit();
+    UCFGtoProtobuf.toProtobufFile(ucfg, file.getPath(), deltaLocations);
+    return file;
+  }
+
+  @Benchmark
+  public UCFG decode() throws IOException {
+    return UCFGtoProtobuf.fromProtobufFile(file);
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    System.out.println("absolute locations: " + write(false).length() + " bytes");
+    System.out.println("delta locations:    " + write(true).length() + " bytes");
+    new Runner(new OptionsBuilder().include(LocationEncodingBenchmark.class.getSimpleName()).build()).run();
+  }
+}
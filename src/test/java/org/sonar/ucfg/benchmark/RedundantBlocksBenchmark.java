@@ -0,0 +1,103 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg.benchmark;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.sonar.ucfg.BasicBlock;
+import org.sonar.ucfg.Expression;
+import org.sonar.ucfg.UCFG;
+import org.sonar.ucfg.UCFGBuilder;
+
+/**
+ * Construction of UCFGs with long chains of redundant blocks, as produced for big switch statements: resolving each case
+ * to its non-redundant successors with one traversal per block is quadratic in the number of cases.
+ * Blocks are immutable and created once per trial, so that the measure only covers building the UCFG, i.e. pruning the
+ * redundant blocks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RedundantBlocksBenchmark {
+
+  private static final String METHOD_ID = "org.foo.A#m(I)V";
+
+  @Param({"100", "1000", "10000"})
+  public int cases;
+
+  private Blocks emptyChains;
+  private Blocks emptyChainsAndLoops;
+
+  @Setup
+  public void setup() {
+    emptyChains = new Blocks(SyntheticUCFGs.switchWithEmptyChains(METHOD_ID, cases, false));
+    emptyChainsAndLoops = new Blocks(SyntheticUCFGs.switchWithEmptyChains(METHOD_ID, cases, true));
+  }
+
+  @Benchmark
+  public UCFG emptyChains() {
+    return emptyChains.build();
+  }
+
+  @Benchmark
+  public UCFG emptyChainsAndLoops() {
+    return emptyChainsAndLoops.build();
+  }
+
+  private static class Blocks {
+    private final List<Expression.Variable> parameters = Collections.singletonList(UCFGBuilder.variableWithId("param"));
+    private final Set<BasicBlock> blocks;
+    private final Set<BasicBlock> entries;
+
+    Blocks(UCFGBuilder builder) {
+      blocks = new LinkedHashSet<>(builder.getBlocks());
+      // the switch block is the first and only starting block
+      entries = Collections.singleton(builder.getBlocks().get(0));
+    }
+
+    UCFG build() {
+      return new UCFG(METHOD_ID, parameters, blocks, entries, UCFGBuilder.LOC);
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(RedundantBlocksBenchmark.class.getSimpleName()).build()).run();
+  }
+}
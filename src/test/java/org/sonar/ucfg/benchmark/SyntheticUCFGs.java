@@ -0,0 +1,101 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg.benchmark;
+
+import org.sonar.ucfg.Expression;
+import org.sonar.ucfg.Label;
+import org.sonar.ucfg.LocationInFile;
+import org.sonar.ucfg.UCFG;
+import org.sonar.ucfg.UCFGBuilder;
+
+import static org.sonar.ucfg.UCFGBuilder.call;
+import static org.sonar.ucfg.UCFGBuilder.createLabel;
+import static org.sonar.ucfg.UCFGBuilder.newBasicBlock;
+import static org.sonar.ucfg.UCFGBuilder.variableWithId;
+
+/**
+ * Generators of UCFGs shaped like the ones produced by front-ends, used by benchmarks.
+ */
+public final class SyntheticUCFGs {
+
+  private SyntheticUCFGs() {
+    // utility class
+  }
+
+  /**
+   * Method of {@code blocks} basic blocks of {@code instructionsPerBlock} calls each, on consecutive lines of one file,
+   * each block jumping to the next two blocks.
+   */
+  public static UCFG method(String methodId, String fileId, int blocks, int instructionsPerBlock) {
+    int line = 100;
+    Expression.Variable param = variableWithId("param");
+    UCFGBuilder builder = UCFGBuilder.createUCFGForMethod(methodId).addMethodParam(param)
+      .at(new LocationInFile(fileId, line, 2, line + blocks * instructionsPerBlock + 1, 3));
+    for (int b = 0; b < blocks; b++) {
+      line++;
+      UCFGBuilder.BlockBuilder block = newBasicBlock("block" + b, new LocationInFile(fileId, line, 4, line + instructionsPerBlock, 20));
+      for (int i = 0; i < instructionsPerBlock; i++) {
+        line++;
+        block.assignTo(variableWithId("var" + i), call("org.foo.Callee#method" + (i % 7) + "(Ljava/lang/String;)Ljava/lang/String;").withArgs(param),
+          new LocationInFile(fileId, line, 8, line, 8 + 40));
+      }
+      if (b < blocks - 2) {
+        block.jumpTo(createLabel("block" + (b + 1)), createLabel("block" + (b + 2)));
+      } else {
+        block.ret(param, new LocationInFile(fileId, line, 8, line, 20));
+      }
+      if (b == 0) {
+        builder.addStartingBlock(block);
+      } else {
+        builder.addBasicBlock(block);
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Builder of a switch of {@code cases} cases, each case making a call and falling through a chain of empty blocks to the
+   * exit, and also jumping to an empty loop when {@code withEmptyLoops}: every case has to be resolved through the chains
+   * of redundant blocks when building the UCFG.
+   */
+  public static UCFGBuilder switchWithEmptyChains(String methodId, int cases, boolean withEmptyLoops) {
+    Expression.Variable param = variableWithId("param");
+    UCFGBuilder builder = UCFGBuilder.createUCFGForMethod(methodId).addMethodParam(param);
+    Label[] caseLabels = new Label[cases];
+    for (int i = 0; i < cases; i++) {
+      caseLabels[i] = createLabel("case" + i);
+    }
+    builder.addStartingBlock(newBasicBlock("switch").assignTo(variableWithId("var"), call("org.foo.A#switchOn()I").withArgs(param))
+      .jumpTo(caseLabels));
+    for (int i = 0; i < cases; i++) {
+      Label next = createLabel(i + 1 < cases ? ("empty" + (i + 1)) : "exit");
+      builder.addBasicBlock(newBasicBlock("case" + i).assignTo(variableWithId("var"), call("org.foo.A#case" + i + "()V").withArgs(param))
+        .jumpTo(createLabel("empty" + i)));
+      if (withEmptyLoops) {
+        builder.addBasicBlock(newBasicBlock("empty" + i).jumpTo(next, createLabel("loop" + i)));
+        builder.addBasicBlock(newBasicBlock("loop" + i).jumpTo(createLabel(i + 1 < cases ? ("loop" + (i + 1)) : "loop0")));
+      } else {
+        builder.addBasicBlock(newBasicBlock("empty" + i).jumpTo(next));
+      }
+    }
+    builder.addBasicBlock(newBasicBlock("exit").ret(param));
+    return builder;
+  }
+}
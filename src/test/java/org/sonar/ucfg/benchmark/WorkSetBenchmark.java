@@ -0,0 +1,106 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.sonar.ucfg.util.IntWorkSet;
+import org.sonar.ucfg.util.WorkSet;
+
+/**
+ * Compares {@link WorkSet} and {@link IntWorkSet} on a worklist iteration: each node of a graph is processed a few times,
+ * its successors being added back to the work set each time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorkSetBenchmark {
+
+  private static final int VISITS = 3;
+
+  @Param({"100", "10000"})
+  public int size;
+
+  private int[][] successors;
+
+  @Setup
+  public void setup() {
+    successors = new int[size][];
+    for (int i = 0; i < size; i++) {
+      successors[i] = new int[] {(i + 1) % size, (i * 7 + 3) % size};
+    }
+  }
+
+  @Benchmark
+  public int workSet() {
+    int[] visits = new int[size];
+    int pops = 0;
+    WorkSet<Integer> workSet = new WorkSet<>();
+    workSet.add(0);
+    while (!workSet.isEmpty()) {
+      int node = workSet.pop();
+      pops++;
+      if (visits[node]++ < VISITS) {
+        for (int successor : successors[node]) {
+          workSet.add(successor);
+        }
+      }
+    }
+    return pops;
+  }
+
+  @Benchmark
+  public int intWorkSet() {
+    int[] visits = new int[size];
+    int pops = 0;
+    IntWorkSet workSet = new IntWorkSet(size);
+    workSet.add(0);
+    while (!workSet.isEmpty()) {
+      int node = workSet.pop();
+      pops++;
+      if (visits[node]++ < VISITS) {
+        for (int successor : successors[node]) {
+          workSet.add(successor);
+        }
+      }
+    }
+    return pops;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(WorkSetBenchmark.class.getSimpleName()).build()).run();
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg.callgraph;
+
+import org.sonar.ucfg.UCFG;
+import org.sonar.ucfg.UCFGBuilder;
+
+import static org.sonar.ucfg.UCFGBuilder.call;
+import static org.sonar.ucfg.UCFGBuilder.constant;
+import static org.sonar.ucfg.UCFGBuilder.createLabel;
+import static org.sonar.ucfg.UCFGBuilder.createUCFGForMethod;
+import static org.sonar.ucfg.UCFGBuilder.newBasicBlock;
+import static org.sonar.ucfg.UCFGBuilder.variableWithId;
+
+final class CallGraphFixtures {
+
+  private CallGraphFixtures() {
+    // fixtures
+  }
+
+  /**
+   * @return UCFG of a method calling the given methods in sequence, one block per call
+   */
+  static UCFG ucfg(String methodId, String... callees) {
+    UCFGBuilder builder = createUCFGForMethod(methodId);
+    for (int i = 0; i < callees.length; i++) {
+      UCFGBuilder.BlockBuilder block = newBasicBlock("block" + i).assignTo(variableWithId("var"), call(callees[i]).withArgs(constant("arg")));
+      builder.addBasicBlock(block.jumpTo(createLabel("block" + (i + 1))));
+    }
+    builder.addBasicBlock(newBasicBlock("block" + callees.length).ret(constant("const")));
+    return builder.build();
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg.callgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.sonar.ucfg.UCFG;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.sonar.ucfg.callgraph.CallGraphFixtures.ucfg;
+
+class CallGraphTest {
+
+  @Test
+  void callers_and_callees() {
+    CallGraph callGraph = CallGraph.build(Arrays.asList(
+      ucfg("A#a()V", "A#b()V", "A#c()V", "A#b()V"),
+      ucfg("A#b()V", "A#c()V", "A#b()V"),
+      ucfg("A#d()V")));
+
+    assertThat(callGraph.size()).isEqualTo(4);
+    int a = callGraph.id("A#a()V");
+    int b = callGraph.id("A#b()V");
+    int c = callGraph.id("A#c()V");
+    int d = callGraph.id("A#d()V");
+    assertThat(callGraph.methodId(c)).isEqualTo("A#c()V");
+    assertThat(callGraph.hasUCFG(b)).isTrue();
+    assertThat(callGraph.hasUCFG(c)).isFalse();
+    assertThat(callees(callGraph, a)).containsExactly("A#b()V", "A#c()V");
+    assertThat(callees(callGraph, b)).containsExactlyInAnyOrder("A#b()V", "A#c()V");
+    assertThat(callGraph.calleeCount(c)).isZero();
+    assertThat(callers(callGraph, b)).containsExactly("A#a()V", "A#b()V");
+    assertThat(callers(callGraph, c)).containsExactly("A#a()V", "A#b()V");
+    assertThat(callGraph.callerCount(a)).isZero();
+    assertThat(callGraph.callerCount(d)).isZero();
+
+    List<Integer> visited = new ArrayList<>();
+    callGraph.forEachCallee(a, visited::add);
+    callGraph.forEachCaller(c, visited::add);
+    assertThat(visited).containsExactly(b, c, a, b);
+
+    assertThat(callGraph.contains("A#e()V")).isFalse();
+    assertThatThrownBy(() -> callGraph.id("A#e()V")).isInstanceOf(IllegalArgumentException.class).hasMessage("Unknown method A#e()V");
+  }
+
+  @Test
+  void add_and_remove_ucfgs() {
+    CallGraph callGraph = CallGraph.build(Arrays.asList(ucfg("A#a()V", "A#b()V"), ucfg("A#b()V")));
+    int a = callGraph.id("A#a()V");
+    int b = callGraph.id("A#b()V");
+    assertThat(callers(callGraph, b)).containsExactly("A#a()V");
+
+    callGraph.add(ucfg("A#a()V", "A#c()V"));
+    assertThat(callees(callGraph, a)).containsExactly("A#c()V");
+    assertThat(callGraph.callerCount(b)).isZero();
+    assertThat(callers(callGraph, callGraph.id("A#c()V"))).containsExactly("A#a()V");
+
+    assertThat(callGraph.remove("A#a()V")).isTrue();
+    assertThat(callGraph.remove("A#a()V")).isFalse();
+    assertThat(callGraph.remove("A#c()V")).isFalse();
+    assertThat(callGraph.remove("A#unknown()V")).isFalse();
+    assertThat(callGraph.hasUCFG(a)).isFalse();
+    assertThat(callGraph.calleeCount(a)).isZero();
+    assertThat(callGraph.callerCount(callGraph.id("A#c()V"))).isZero();
+    assertThat(callGraph.id("A#a()V")).isEqualTo(a);
+  }
+
+  @Test
+  void parallel_build_is_same_as_sequential_build() throws Exception {
+    List<UCFG> ucfgs = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      ucfgs.add(ucfg("A#m" + i + "()V", "A#m" + ((i * 7) % 200) + "()V", "A#m" + ((i * 13 + 1) % 300) + "()V"));
+    }
+    CallGraph sequential = CallGraph.build(ucfgs);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    CallGraph parallel;
+    try {
+      parallel = CallGraph.build(ucfgs, pool);
+    } finally {
+      pool.shutdown();
+    }
+
+    assertThat(parallel.size()).isEqualTo(sequential.size());
+    for (int m = 0; m < sequential.size(); m++) {
+      assertThat(parallel.methodId(m)).isEqualTo(sequential.methodId(m));
+      assertThat(callees(parallel, m)).isEqualTo(callees(sequential, m));
+      assertThat(callers(parallel, m)).isEqualTo(callers(sequential, m));
+    }
+  }
+
+  private static List<String> callees(CallGraph callGraph, int method) {
+    List<String> result = new ArrayList<>();
+    IntStream.range(0, callGraph.calleeCount(method)).forEach(i -> result.add(callGraph.methodId(callGraph.callee(method, i))));
+    return result;
+  }
+
+  private static List<String> callers(CallGraph callGraph, int method) {
+    List<String> result = new ArrayList<>();
+    IntStream.range(0, callGraph.callerCount(method)).forEach(i -> result.add(callGraph.methodId(callGraph.caller(method, i))));
+    return result;
+  }
+}
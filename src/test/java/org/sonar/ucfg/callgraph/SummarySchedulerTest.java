@@ -0,0 +1,179 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg.callgraph;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.sonar.ucfg.BasicBlock;
+import org.sonar.ucfg.UCFG;
+import org.sonar.ucfg.UCFGElement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.sonar.ucfg.callgraph.CallGraphFixtures.ucfg;
+
+class SummarySchedulerTest {
+
+  private final ForkJoinPool pool = new ForkJoinPool(4);
+
+  /**
+   * Summary of a method: 1 + the highest summary of its callees, missing summaries counting as 0.
+   */
+  private static final SummaryScheduler.Summarizer<Integer> HEIGHT = (ucfg, calleeSummaries) -> {
+    int height = 0;
+    for (String callee : callees(ucfg)) {
+      Integer summary = calleeSummaries.apply(callee);
+      height = Math.max(height, summary == null ? 0 : summary);
+    }
+    return height + 1;
+  };
+
+  @AfterEach
+  void shutdown() {
+    pool.shutdown();
+  }
+
+  @Test
+  void callees_are_summarized_before_callers() throws Exception {
+    List<UCFG> ucfgs = Arrays.asList(
+      ucfg("A#main()V", "A#left()V", "A#right()V", "java.lang.String#length()I"),
+      ucfg("A#left()V", "A#leaf()V"),
+      ucfg("A#right()V", "A#leaf()V", "A#left()V"),
+      ucfg("A#leaf()V"),
+      ucfg("A#unused()V", "A#leaf()V"));
+
+    Map<String, Integer> summaries = new SummaryScheduler(pool).computeSummaries(ucfgs, HEIGHT);
+
+    assertThat(summaries).hasSize(5)
+      .containsEntry("A#leaf()V", 1)
+      .containsEntry("A#left()V", 2)
+      .containsEntry("A#right()V", 3)
+      .containsEntry("A#main()V", 4)
+      .containsEntry("A#unused()V", 2);
+  }
+
+  @Test
+  void recursive_methods_are_summarized_once_after_their_callees() throws Exception {
+    Set<String> summarized = ConcurrentHashMap.newKeySet();
+    List<UCFG> ucfgs = Arrays.asList(
+      ucfg("A#main()V", "A#even()V"),
+      ucfg("A#even()V", "A#odd()V", "A#leaf()V"),
+      ucfg("A#odd()V", "A#even()V"),
+      ucfg("A#self()V", "A#self()V"),
+      ucfg("A#leaf()V"));
+
+    Map<String, Integer> summaries = new SummaryScheduler(pool).computeSummaries(ucfgs, (ucfg, calleeSummaries) -> {
+      assertThat(summarized.add(ucfg.methodId())).isTrue();
+      if ("A#even()V".equals(ucfg.methodId())) {
+        assertThat(calleeSummaries.apply("A#leaf()V")).isEqualTo(1);
+      }
+      return HEIGHT.summarize(ucfg, calleeSummaries);
+    });
+
+    assertThat(summarized).hasSize(5);
+    assertThat(summaries).containsEntry("A#self()V", 1).containsEntry("A#leaf()V", 1);
+    // the first summarized method of the cycle does not see the summary of the other one
+    assertThat(Arrays.asList(summaries.get("A#even()V"), summaries.get("A#odd()V"))).containsAnyOf(2, 3);
+    assertThat(summaries.get("A#main()V")).isEqualTo(summaries.get("A#even()V") + 1);
+  }
+
+  @Test
+  void many_methods_with_null_summaries() throws Exception {
+    List<UCFG> ucfgs = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      // chains of 10 methods
+      ucfgs.add(i % 10 == 9 ? ucfg("A#m" + i + "()V") : ucfg("A#m" + i + "()V", "A#m" + (i + 1) + "()V"));
+    }
+
+    Map<String, Integer> summaries = new SummaryScheduler(pool).computeSummaries(ucfgs,
+      (ucfg, calleeSummaries) -> ucfg.methodId().equals("A#m5()V") ? null : HEIGHT.summarize(ucfg, calleeSummaries));
+
+    assertThat(summaries).hasSize(999).doesNotContainKey("A#m5()V");
+    assertThat(summaries).containsEntry("A#m990()V", 10).containsEntry("A#m999()V", 1).containsEntry("A#m0()V", 5);
+    assertThat(new SummaryScheduler(pool).computeSummaries(Collections.emptyList(), HEIGHT)).isEmpty();
+  }
+
+  @Test
+  void failure_of_summarizer() {
+    List<UCFG> ucfgs = Arrays.asList(ucfg("A#main()V", "A#leaf()V"), ucfg("A#leaf()V"));
+    SummaryScheduler scheduler = new SummaryScheduler(pool);
+    assertThatThrownBy(() -> scheduler.computeSummaries(ucfgs, (ucfg, calleeSummaries) -> {
+      throw new IllegalArgumentException("boom");
+    })).isInstanceOf(IllegalStateException.class).hasMessage("An error occured while computing method summaries")
+      .hasCauseInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void rejected_task() throws Exception {
+    AtomicInteger executed = new AtomicInteger();
+    ForkJoinPool rejecting = new ForkJoinPool(2) {
+      @Override
+      public void execute(Runnable task) {
+        if (executed.incrementAndGet() > 2) {
+          throw new RejectedExecutionException("full");
+        }
+        super.execute(task);
+      }
+    };
+    List<UCFG> ucfgs = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      ucfgs.add(ucfg("A#m" + i + "()V", "A#m" + (i + 1) + "()V"));
+    }
+    try {
+      Throwable thrown = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> catchThrowable(() -> new SummaryScheduler(rejecting).computeSummaries(ucfgs, HEIGHT)));
+      assertThat(thrown).isInstanceOf(IllegalStateException.class).hasMessage("An error occured while computing method summaries")
+        .hasCauseInstanceOf(RejectedExecutionException.class);
+    } finally {
+      rejecting.shutdown();
+    }
+  }
+
+  @Test
+  void cannot_be_called_from_the_pool() throws Exception {
+    SummaryScheduler scheduler = new SummaryScheduler(pool);
+    List<UCFG> ucfgs = Collections.singletonList(ucfg("A#leaf()V"));
+    Throwable thrown = pool.submit(() -> catchThrowable(() -> scheduler.computeSummaries(ucfgs, HEIGHT))).get();
+    assertThat(thrown).isInstanceOf(IllegalStateException.class)
+      .hasMessage("Method summaries cannot be computed from a thread of the pool computing them");
+  }
+
+  private static List<String> callees(UCFG ucfg) {
+    List<String> callees = new ArrayList<>();
+    for (BasicBlock block : ucfg.basicBlocks().values()) {
+      for (UCFGElement.Instruction instruction : block.instructions()) {
+        callees.add(((UCFGElement.AssignCall) instruction).getMethodId());
+      }
+    }
+    return callees;
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IntWorkSetTest {
+
+  @Test
+  void empty() {
+    IntWorkSet w = new IntWorkSet(4);
+    assertThat(w.isEmpty()).isTrue();
+    assertThat(w.contains(0)).isFalse();
+    Assertions.assertThrows(IllegalStateException.class, w::pop);
+    Assertions.assertThrows(IndexOutOfBoundsException.class, () -> w.add(4));
+    Assertions.assertThrows(IndexOutOfBoundsException.class, () -> w.add(-1));
+  }
+
+  @Test
+  void several_elements() {
+    IntWorkSet w = new IntWorkSet(4);
+    w.addAll(2, 0);
+    w.add(3);
+    assertThat(w.size()).isEqualTo(3);
+    assertThat(w.contains(0)).isTrue();
+    assertThat(w.contains(1)).isFalse();
+    assertThat(w.pop()).isEqualTo(2);
+    assertThat(w.pop()).isEqualTo(0);
+    assertThat(w.contains(0)).isFalse();
+    assertThat(w.size()).isEqualTo(1);
+    assertThat(w.pop()).isEqualTo(3);
+    assertThat(w.isEmpty()).isTrue();
+  }
+
+  @Test
+  void elements_should_not_be_duplicated() {
+    IntWorkSet w = new IntWorkSet(4);
+    w.addAll(1, 1);
+    assertThat(w.pop()).isEqualTo(1);
+    assertThat(w.isEmpty()).isTrue();
+  }
+
+  @Test
+  void queue_wraps_around() {
+    IntWorkSet w = new IntWorkSet(3);
+    w.addAll(0, 1, 2);
+    for (int i = 0; i < 10; i++) {
+      int popped = w.pop();
+      assertThat(popped).isEqualTo(i % 3);
+      w.add(popped);
+      assertThat(w.size()).isEqualTo(3);
+    }
+  }
+}
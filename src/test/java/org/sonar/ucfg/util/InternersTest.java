@@ -0,0 +1,77 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg.util;
+
+import java.lang.reflect.Constructor;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+import static java.lang.reflect.Modifier.isPrivate;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InternersTest {
+
+  @Test
+  void none_returns_symbol_as_is() {
+    String symbol = new String("abc");
+    assertThat(Interners.none().intern(symbol)).isSameAs(symbol);
+    assertThat(Interners.none().intern(new String("abc"))).isNotSameAs(symbol);
+  }
+
+  @Test
+  void jvm_pool_shares_instances() {
+    String first = Interners.jvmPool().intern(new String("abc"));
+    assertThat(Interners.jvmPool().intern(new String("abc"))).isSameAs(first);
+  }
+
+  @Test
+  void arena_shares_instances_within_the_arena() {
+    Interner arena = Interners.arena();
+    String first = new String("abc");
+    assertThat(arena.intern(first)).isSameAs(first);
+    assertThat(arena.intern(new String("abc"))).isSameAs(first);
+    assertThat(arena.intern("def")).isEqualTo("def");
+    assertThat(Interners.arena().intern(new String("abc"))).isNotSameAs(first);
+  }
+
+  @Test
+  void arena_is_thread_safe() {
+    Interner arena = Interners.arena();
+    List<String> interned = IntStream.range(0, 10_000).parallel()
+      .mapToObj(i -> arena.intern(new String("symbol" + (i % 10))))
+      .collect(Collectors.toList());
+    Set<String> instances = Collections.newSetFromMap(new IdentityHashMap<>());
+    instances.addAll(interned);
+    assertThat(instances).hasSize(10);
+  }
+
+  @Test
+  void private_constructor() throws Exception {
+    Constructor<Interners> constructor = Interners.class.getDeclaredConstructor();
+    assertThat(isPrivate(constructor.getModifiers())).isTrue();
+    constructor.setAccessible(true);
+    constructor.newInstance();
+  }
+}
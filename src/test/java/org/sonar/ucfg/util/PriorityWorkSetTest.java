@@ -0,0 +1,71 @@
+/*
+ * sonar-ucfg
+ * Copyright (C) 2018-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.ucfg.util;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PriorityWorkSetTest {
+
+  @Test
+  void empty() {
+    PriorityWorkSet<String> w = new PriorityWorkSet<>(10, String::length);
+    assertThat(w.isEmpty()).isTrue();
+    assertThat(w.size()).isZero();
+    assertThat(w.contains("abc")).isFalse();
+    assertThrows(IllegalStateException.class, w::pop);
+  }
+
+  @Test
+  void pop_by_priority() {
+    PriorityWorkSet<String> w = new PriorityWorkSet<>(10, String::length);
+    w.addAll(Arrays.asList("ccc", "a", "dddddd"));
+    assertThat(w.add("bb")).isTrue();
+    assertThat(w.add("ccc")).isFalse();
+    assertThat(w.size()).isEqualTo(4);
+    assertThat(w.contains("bb")).isTrue();
+    assertThat(w.contains("xx")).isFalse();
+    assertThat(w.contains("0123456789abc")).isFalse();
+    assertThat(w.pop()).isEqualTo("a");
+    assertThat(w.pop()).isEqualTo("bb");
+    assertThat(w.contains("bb")).isFalse();
+    // lower priority added after some pops
+    w.add("");
+    w.add("eeeee");
+    assertThat(w.pop()).isEqualTo("");
+    assertThat(w.pop()).isEqualTo("ccc");
+    assertThat(w.pop()).isEqualTo("eeeee");
+    assertThat(w.pop()).isEqualTo("dddddd");
+    assertThat(w.isEmpty()).isTrue();
+    assertThat(w.add("bb")).isTrue();
+    assertThat(w.pop()).isEqualTo("bb");
+  }
+
+  @Test
+  void invalid_priorities() {
+    PriorityWorkSet<String> w = new PriorityWorkSet<>(3, String::length);
+    assertThrows(IllegalArgumentException.class, () -> w.add("abc"));
+    w.add("ab");
+    assertThrows(IllegalArgumentException.class, () -> w.add("xy"));
+  }
+}